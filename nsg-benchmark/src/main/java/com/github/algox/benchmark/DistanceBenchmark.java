@@ -0,0 +1,154 @@
+package com.github.algox.benchmark;
+
+import com.github.algox.indexsearch.CommonDistance;
+import com.github.algox.indexsearch.CosineDistance;
+import com.github.algox.indexsearch.Distance;
+import com.github.algox.indexsearch.DotDistance;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance kernels against the single-accumulator scalar loops they replaced,
+ * one query against ROWS vectors per invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DistanceBenchmark {
+    private static final int ROWS = 1024;
+
+    @Param({"32", "128", "200", "960"})
+    private int dim;
+
+    private float[] data;
+    private float[] query;
+    private double[][] doubleData;
+    private double[] doubleQuery;
+    private float bound;
+    private final Distance l2 = new CommonDistance();
+    private final Distance dot = new DotDistance();
+    private final Distance cosine = new CosineDistance();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        data = new float[ROWS * dim];
+        for (int i = 0; i < data.length; i ++) {
+            data[i] = random.nextFloat();
+        }
+        query = new float[dim];
+        doubleQuery = new double[dim];
+        for (int j = 0; j < dim; j ++) {
+            query[j] = random.nextFloat();
+            doubleQuery[j] = query[j];
+        }
+        // a bound most rows exceed, like the worst entry of a converged search pool
+        float mean = 0;
+        for (int i = 0; i < ROWS; i ++) {
+            mean += l2.distance(data, i * dim, query, 0, dim) / ROWS;
+        }
+        bound = mean * 0.5f;
+        doubleData = new double[ROWS][dim];
+        for (int i = 0; i < ROWS; i ++) {
+            for (int j = 0; j < dim; j ++) {
+                doubleData[i][j] = data[i * dim + j];
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double l2Double() {
+        double sum = 0;
+        for (int i = 0; i < ROWS; i ++) {
+            sum += l2.distance(doubleData[i], doubleQuery);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float l2Scalar() {
+        float sum = 0;
+        for (int i = 0; i < ROWS; i ++) {
+            int off = i * dim;
+            float v = 0;
+            for (int j = 0; j < dim; j ++) {
+                float d = data[off + j] - query[j];
+                v += d * d;
+            }
+            sum += v;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float l2Unrolled() {
+        float sum = 0;
+        for (int i = 0; i < ROWS; i ++) {
+            sum += l2.distance(data, i * dim, query, 0, dim);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float l2Bounded() {
+        float sum = 0;
+        for (int i = 0; i < ROWS; i ++) {
+            sum += l2.distance(data, i * dim, query, 0, dim, bound);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double dotDouble() {
+        double sum = 0;
+        for (int i = 0; i < ROWS; i ++) {
+            sum += dot.distance(doubleData[i], doubleQuery);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float dotScalar() {
+        float sum = 0;
+        for (int i = 0; i < ROWS; i ++) {
+            int off = i * dim;
+            float v = 0;
+            for (int j = 0; j < dim; j ++) {
+                v += data[off + j] * query[j];
+            }
+            sum += 1 - v;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float dotUnrolled() {
+        float sum = 0;
+        for (int i = 0; i < ROWS; i ++) {
+            sum += dot.distance(data, i * dim, query, 0, dim);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public float cosineUnrolled() {
+        float sum = 0;
+        for (int i = 0; i < ROWS; i ++) {
+            sum += cosine.distance(data, i * dim, query, 0, dim);
+        }
+        return sum;
+    }
+}
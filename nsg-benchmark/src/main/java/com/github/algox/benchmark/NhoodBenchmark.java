@@ -0,0 +1,60 @@
+package com.github.algox.benchmark;
+
+import com.github.algox.indexsearch.Nhood;
+import org.nd4j.linalg.api.rng.DefaultRandom;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The NN-Descent neighborhood pool: concurrent-safe insert and heap rebuild.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NhoodBenchmark {
+    private static final int CANDIDATES = 4096;
+
+    @Param({"40", "100", "200"})
+    private int l;
+
+    private int[] ids;
+    private float[] distances;
+    private Nhood nhood;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        ids = new int[CANDIDATES];
+        distances = new float[CANDIDATES];
+        for (int i = 0; i < CANDIDATES; i ++) {
+            ids[i] = random.nextInt(1 << 20);
+            distances[i] = random.nextFloat();
+        }
+        nhood = new Nhood(l, 10, new DefaultRandom(42), 1 << 20);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public int insert() {
+        nhood.clearPool();
+        for (int i = 0; i < CANDIDATES; i ++) {
+            nhood.insert(ids[i], distances[i]);
+        }
+        return nhood.size;
+    }
+
+    @Benchmark
+    public int makeHeap() {
+        nhood.clearPool();
+        for (int i = 0; i < l; i ++) {
+            nhood.add(ids[i], distances[i], true);
+        }
+        nhood.makeHeap();
+        return nhood.ids[0];
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.algox.benchmark;
+
+import com.github.algox.indexsearch.CandidatePool;
+import com.github.algox.indexsearch.Neighbor;
+import com.github.algox.indexsearch.TopK;
+import com.github.algox.utils.BoundedPriorityQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bounded top-L structures of the search and build paths fed the same stream of
+ * random candidates: CandidatePool (the NSG search pool), TopK and BoundedPriorityQueue.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PoolBenchmark {
+    private static final int CANDIDATES = 4096;
+
+    @Param({"40", "100", "200"})
+    private int capacity;
+
+    private int[] ids;
+    private float[] distances;
+    private Neighbor[] neighbors;
+    private com.github.algox.graph.Neighbor<Integer>[] graphNeighbors;
+    private CandidatePool pool;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        Random random = new Random(42);
+        ids = new int[CANDIDATES];
+        distances = new float[CANDIDATES];
+        neighbors = new Neighbor[CANDIDATES];
+        graphNeighbors = new com.github.algox.graph.Neighbor[CANDIDATES];
+        for (int i = 0; i < CANDIDATES; i ++) {
+            ids[i] = random.nextInt(1 << 20);
+            distances[i] = random.nextFloat();
+            neighbors[i] = new Neighbor(ids[i], distances[i], true);
+            graphNeighbors[i] = new com.github.algox.graph.Neighbor<>(ids[i], distances[i]);
+        }
+        pool = new CandidatePool(capacity);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public int candidatePoolInsert() {
+        pool.reset(capacity);
+        for (int i = 0; i < CANDIDATES; i ++) {
+            pool.insert(ids[i], distances[i]);
+        }
+        return pool.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public TopK<Neighbor> topKAdd() {
+        TopK<Neighbor> topK = new TopK<>(capacity);
+        for (int i = 0; i < CANDIDATES; i ++) {
+            topK.add(neighbors[i]);
+        }
+        return topK;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public int boundedQueueOffer() {
+        BoundedPriorityQueue<com.github.algox.graph.Neighbor<Integer>> queue = new BoundedPriorityQueue<>(capacity);
+        for (int i = 0; i < CANDIDATES; i ++) {
+            queue.offer(graphNeighbors[i]);
+        }
+        return queue.size();
+    }
+}
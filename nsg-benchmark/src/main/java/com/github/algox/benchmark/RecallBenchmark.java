@@ -0,0 +1,243 @@
+package com.github.algox.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.github.algox.indexsearch.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Recall / latency sweep over the search list size of an NsgIndex.
+ * <pre>
+ * java -cp benchmarks.jar com.github.algox.benchmark.RecallBenchmark \
+ *     --base sift_base.fvecs --query sift_query.fvecs --gt sift_groundtruth.ivecs \
+ *     --knn sift.knn --index sift.nsg --L 10,20,40,80,160 --out sift
+ * </pre>
+ * The kNN graph and the index are loaded when their files exist and built (and saved)
+ * otherwise; without --gt the ground truth is computed by brute force. For every L it
+ * reports recall@k, QPS over --threads threads, single-thread p50/p99 latency and distance
+ * computations per query, printed as CSV and written to &lt;out&gt;.csv and &lt;out&gt;.json.
+ */
+public class RecallBenchmark {
+    private static final String[] COLUMNS = {"label", "k", "L", "recall", "qps", "p50_us", "p99_us",
+            "distances_per_query", "threads"};
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> opts = parse(args);
+        String base = require(opts, "base");
+        String query = require(opts, "query");
+        int k = Integer.parseInt(opts.getOrDefault("k", "10"));
+        int threads = Integer.parseInt(opts.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        Distance distance = distance(opts.getOrDefault("distance", "l2"));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        VectorStore data = Boolean.parseBoolean(opts.getOrDefault("mmap", "false"))
+                ? VectorFiles.mapFvecs(base) : VectorFiles.readFvecs(base);
+        VectorStore queries = VectorFiles.readFvecs(query);
+        float[][] qs = new float[queries.size()][];
+        for (int i = 0; i < qs.length; i ++) {
+            qs[i] = queries.get(i, new float[queries.dim()]);
+        }
+        System.err.println(String.format("base %d x %d, %d queries", data.size(), data.dim(), qs.length));
+
+        int[][] gt;
+        if (opts.containsKey("gt")) {
+            gt = VectorFiles.readIvecs(opts.get("gt"));
+            if (gt.length < qs.length || gt[0].length < k) {
+                throw new IllegalArgumentException("ground truth has " + gt.length + " x " + gt[0].length
+                        + " ids, need " + qs.length + " x " + k);
+            }
+        } else {
+            long start = System.nanoTime();
+            gt = groundTruth(data, qs, k, distance, pool);
+            System.err.println(String.format("ground truth in %.1f s", (System.nanoTime() - start) / 1e9));
+        }
+
+        NsgIndex index = new NsgIndex(data);
+        index.setDistance(distance);
+        index.setL(Integer.parseInt(opts.getOrDefault("nsgL", "40")));
+        index.setR(Integer.parseInt(opts.getOrDefault("R", "50")));
+        index.setC(Integer.parseInt(opts.getOrDefault("C", "500")));
+        index.setEntryPointCount(Integer.parseInt(opts.getOrDefault("entryPoints", "0")));
+        index.setBuildPool(pool);
+        index.setSearchPool(pool);
+        String indexPath = opts.get("index");
+        if (indexPath != null && new File(indexPath).exists()) {
+            index.load(indexPath);
+        } else {
+            String knnPath = opts.get("knn");
+            if (knnPath == null) {
+                File knn = File.createTempFile("knn", ".graph");
+                knn.deleteOnExit();
+                knnPath = knn.getPath();
+            }
+            if (!new File(knnPath).exists() || new File(knnPath).length() == 0) {
+                long start = System.nanoTime();
+                IndexGraph graph = new IndexGraph();
+                graph.fromData(data);
+                graph.setK(Integer.parseInt(opts.getOrDefault("knnK", "100")));
+                graph.setL(Integer.parseInt(opts.getOrDefault("knnL", "100")));
+                graph.setR(Integer.parseInt(opts.getOrDefault("knnR", "100")));
+                graph.setS(Integer.parseInt(opts.getOrDefault("S", "10")));
+                graph.setIter(Integer.parseInt(opts.getOrDefault("iter", "10")));
+                graph.setDistance(distance);
+                graph.setBuildPool(pool);
+                graph.build();
+                graph.save(knnPath);
+                System.err.println(String.format("kNN graph in %.1f s", (System.nanoTime() - start) / 1e9));
+            }
+            long start = System.nanoTime();
+            index.build(knnPath);
+            System.err.println(String.format("NSG in %.1f s", (System.nanoTime() - start) / 1e9));
+            if (indexPath != null) {
+                index.save(indexPath);
+            }
+        }
+
+        String label = opts.getOrDefault("label", new File(base).getName());
+        List<Map<String, Object>> rows = new ArrayList<>();
+        System.out.println(String.join(",", COLUMNS));
+        for (String l : opts.getOrDefault("L", "10,20,40,80,160").split(",")) {
+            int searchL = Math.max(k, Integer.parseInt(l.trim()));
+            Map<String, Object> row = run(index, qs, gt, k, searchL, label, threads);
+            rows.add(row);
+            System.out.println(csv(row));
+        }
+        pool.shutdown();
+
+        String out = opts.get("out");
+        if (out != null) {
+            try (PrintWriter writer = new PrintWriter(out + ".csv", StandardCharsets.UTF_8.name())) {
+                writer.println(String.join(",", COLUMNS));
+                for (Map<String, Object> row : rows) {
+                    writer.println(csv(row));
+                }
+            }
+            try (PrintWriter writer = new PrintWriter(out + ".json", StandardCharsets.UTF_8.name())) {
+                writer.println(JSON.toJSONString(rows, true));
+            }
+        }
+    }
+
+    private static Map<String, Object> run(NsgIndex index, float[][] qs, int[][] gt, int k, int searchL,
+                                           String label, int threads) {
+        // warm up, then time every query alone on this thread
+        for (float[] q : qs) {
+            index.search(q, k, searchL);
+        }
+        long[] latencies = new long[qs.length];
+        for (int i = 0; i < qs.length; i ++) {
+            long start = System.nanoTime();
+            index.search(qs[i], k, searchL);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        BatchSearchResult batch = index.searchBatch(qs, k, searchL);
+        double recall = 0;
+        for (int i = 0; i < qs.length; i ++) {
+            recall += recall(batch.getIds()[i], gt[i], k);
+        }
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("label", label);
+        row.put("k", k);
+        row.put("L", searchL);
+        row.put("recall", round(recall / qs.length));
+        row.put("qps", round(batch.getQueriesPerSecond()));
+        row.put("p50_us", round(percentile(latencies, 0.50) / 1e3));
+        row.put("p99_us", round(percentile(latencies, 0.99) / 1e3));
+        row.put("distances_per_query", round(batch.getDistanceComputationsPerQuery()));
+        row.put("threads", threads);
+        return row;
+    }
+
+    private static String csv(Map<String, Object> row) {
+        StringBuilder line = new StringBuilder();
+        for (String column : COLUMNS) {
+            if (line.length() > 0) line.append(',');
+            line.append(row.get(column));
+        }
+        return line.toString();
+    }
+
+    private static double recall(int[] ids, int[] truth, int k) {
+        int relevant = Math.min(k, truth.length);
+        if (relevant == 0) return 1;
+        int hits = 0;
+        for (int i = 0; i < Math.min(k, ids.length); i ++) {
+            for (int j = 0; j < relevant; j ++) {
+                if (ids[i] == truth[j]) {
+                    hits ++;
+                    break;
+                }
+            }
+        }
+        return (double) hits / relevant;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 1000) / 1000.0;
+    }
+
+    /**
+     * Exact k nearest neighbors of every query, one query per task.
+     */
+    private static int[][] groundTruth(VectorStore data, float[][] qs, int k, Distance distance, ForkJoinPool pool) {
+        int[][] gt = new int[qs.length][];
+        Utils.parallelFor(pool, qs.length, q -> {
+            CandidatePool best = new CandidatePool(Math.min(k, data.size()));
+            for (int id = 0; id < data.size(); id ++) {
+                float dist = distance.distance(data, id, qs[q], best.worst());
+                if (dist < best.worst()) {
+                    best.insert(id, dist);
+                }
+            }
+            int[] ids = new int[best.size()];
+            for (int i = 0; i < ids.length; i ++) {
+                ids[i] = best.id(i);
+            }
+            gt[q] = ids;
+        });
+        return gt;
+    }
+
+    private static Distance distance(String name) {
+        switch (name) {
+            case "l2":
+                return new CommonDistance();
+            case "ip":
+                return new DotDistance();
+            case "cosine":
+                return new CosineDistance();
+            default:
+                throw new IllegalArgumentException("unknown distance " + name + ", expected l2, ip or cosine");
+        }
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i < args.length; i ++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("expected --name value, got " + args[i]);
+            }
+            opts.put(args[i].substring(2), args[++ i]);
+        }
+        return opts;
+    }
+
+    private static String require(Map<String, String> opts, String name) {
+        String value = opts.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("missing --" + name);
+        }
+        return value;
+    }
+}
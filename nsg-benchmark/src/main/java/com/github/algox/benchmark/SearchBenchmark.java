@@ -0,0 +1,95 @@
+package com.github.algox.benchmark;
+
+import com.github.algox.indexsearch.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One NsgIndex search at a fixed L on a synthetic uniform data set. The vectors and
+ * queries come from fixed seeds. The kNN and NSG builds are not deterministic, so the
+ * index is built on the first run only and saved as a fixture file in the directory
+ * given by -Dnsg.benchmark.fixtures (default java.io.tmpdir). Every fork, the first one
+ * included, then loads (maps) that file, so all runs search the same graph the same way.
+ * Delete the file to rebuild it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+    private static final int QUERIES = 1000;
+
+    @Param({"20000"})
+    private int size;
+
+    @Param({"32"})
+    private int dim;
+
+    @Param({"20", "50", "100"})
+    private int searchL;
+
+    private NsgIndex index;
+    private float[][] queries;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        FloatVectorStore data = new FloatVectorStore(size, dim);
+        float[] row = new float[dim];
+        for (int i = 0; i < size; i ++) {
+            for (int j = 0; j < dim; j ++) {
+                row[j] = random.nextFloat();
+            }
+            data.set(i, row);
+        }
+        queries = new float[QUERIES][dim];
+        for (float[] q : queries) {
+            for (int j = 0; j < dim; j ++) {
+                q[j] = random.nextFloat();
+            }
+        }
+        Distance distance = new CommonDistance();
+        index = new NsgIndex(data);
+        index.setDistance(distance);
+        index.setL(50);
+        index.setR(40);
+        index.setC(300);
+        File fixture = new File(System.getProperty("nsg.benchmark.fixtures", System.getProperty("java.io.tmpdir")),
+                "search-benchmark-" + size + "x" + dim + ".nsg");
+        if (!fixture.exists()) {
+            IndexGraph graph = new IndexGraph();
+            graph.fromData(data);
+            graph.setK(50);
+            graph.setL(60);
+            graph.setR(60);
+            graph.setS(10);
+            graph.setIter(8);
+            graph.setDistance(distance);
+            graph.build();
+            File knn = File.createTempFile("knn", ".graph");
+            knn.deleteOnExit();
+            graph.save(knn.getPath());
+            index.build(knn.getPath());
+            index.save(fixture.getPath());
+        }
+        index.load(fixture.getPath());
+    }
+
+    @Benchmark
+    public SearchResult search(Cursor cursor) {
+        float[] q = queries[cursor.next];
+        cursor.next = (cursor.next + 1) % QUERIES;
+        return index.search(q, 10, searchL);
+    }
+}
@@ -5,6 +5,8 @@ import com.github.algox.commons.SimilarityInterface;
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 
 /**
  * @author: yaheng.song
@@ -17,16 +19,21 @@ public class Graph<T> implements Serializable {
      */
     public static final int DEFAULT_K = 10;
 
-    private final HashMap<T, NeighborList> map;
+    // Block sizes of the exhaustive search
+    private static final int SEARCH_NODE_BLOCK = 4096;
+    private static final int SEARCH_QUERY_BLOCK = 64;
+
+    // All the nodes of the graph with their int id and neighborlist. The
+    // neighborlist is null for nodes located on another partition.
+    private final NodeRegistry<T> nodes = new NodeRegistry<T>();
     private SimilarityInterface<T> similarity;
     private int k = DEFAULT_K;
-
-    // These fields are not serialized...
-    // drawback: must be very carefull when using/modifying
-    private final transient Random rand = new Random();
-    // The nodes arraylist is a cache for map.keys()
-    // used for example to get a single random node
-    private transient ArrayList<T> nodes;
+    private volatile boolean reverseIndex;
+    // not serialized, getSearchPool() falls back to the common pool
+    private transient ForkJoinPool searchPool;
+    // visited tables of the threads searching this graph, not serialized and
+    // created on first use
+    private transient volatile ThreadLocal<VisitedTable> visitedTables;
 
     /**
      * Copy constructor.
@@ -36,9 +43,10 @@ public class Graph<T> implements Serializable {
     public Graph(final Graph<T> origin) {
         this.k = origin.k;
         this.similarity = origin.similarity;
-        this.map = new HashMap<T, NeighborList>(origin.size());
+        this.reverseIndex = origin.reverseIndex;
         for (T node : origin.getNodes()) {
-            this.map.put(node, new NeighborList(origin.getNeighbors(node)));
+            NeighborList nl = origin.getNeighbors(node);
+            this.put(node, nl == null ? null : new NeighborList(nl));
         }
     }
 
@@ -49,14 +57,12 @@ public class Graph<T> implements Serializable {
      */
     public Graph(final int k) {
         this.k = k;
-        this.map = new HashMap<T, NeighborList>();
     }
 
     /**
      * Initialize an empty graph with k = 10.
      */
     public Graph() {
-        this.map = new HashMap<T, NeighborList>();
     }
 
     /**
@@ -99,7 +105,29 @@ public class Graph<T> implements Serializable {
      * @return the neighborlist of this node
      */
     public final NeighborList getNeighbors(final T node) {
-        return map.get(node);
+        return nodes.neighbors(nodes.id(node));
+    }
+
+    /**
+     * Get the int id of this node. Ids are dense (between 0 and about the
+     * size of the graph) and the id of a removed node is given to the next
+     * added node.
+     *
+     * @param node
+     * @return the id of the node, or -1 if the graph does not contain it
+     */
+    public final int getId(final T node) {
+        return nodes.id(node);
+    }
+
+    /**
+     * Get the node with this id.
+     *
+     * @param id
+     * @return the node, or null if no node has this id
+     */
+    public final T getNode(final int id) {
+        return nodes.value(id);
     }
 
     /**
@@ -115,11 +143,14 @@ public class Graph<T> implements Serializable {
     /**
      * Return a random node from the graph.
      * @return
+     * @throws NoSuchElementException if the graph is empty
      */
     public final T getRandomNode() {
-
-
-        return getNodes().get(rand.nextInt(getNodes().size()));
+        T node = nodes.random(ThreadLocalRandom.current());
+        if (node == null) {
+            throw new NoSuchElementException("The graph is empty");
+        }
+        return node;
     }
 
     /**
@@ -129,8 +160,11 @@ public class Graph<T> implements Serializable {
      */
     public final void prune(final double threshold) {
 
-        for (NeighborList nl : map.values()) {
-            nl.prune(threshold);
+        for (int id : nodes.ids()) {
+            NeighborList nl = nodes.neighbors(id);
+            if (nl != null) {
+                nl.prune(threshold);
+            }
         }
     }
 
@@ -143,7 +177,7 @@ public class Graph<T> implements Serializable {
     public final ArrayList<Graph<T>> connectedComponents() {
 
         ArrayList<Graph<T>> subgraphs = new ArrayList<Graph<T>>();
-        LinkedList<T> nodes_to_process = new LinkedList<T>(map.keySet());
+        LinkedList<T> nodes_to_process = new LinkedList<T>(getNodes());
         while (!nodes_to_process.isEmpty()) {
             T n = nodes_to_process.peek();
             if (n == null) {
@@ -189,11 +223,11 @@ public class Graph<T> implements Serializable {
         Stack<NodeParent> explored_nodes = new Stack<NodeParent>();
         Index index = new Index();
         HashMap<T, NodeProperty> bookkeeping =
-                new HashMap<T, NodeProperty>(map.size());
+                new HashMap<T, NodeProperty>(size());
 
         ArrayList<Graph<T>> connected_components = new ArrayList<Graph<T>>();
 
-        for (T n : map.keySet()) {
+        for (T n : getNodes()) {
 
             if (bookkeeping.containsKey(n)) {
                 // This node was already processed...
@@ -370,14 +404,17 @@ public class Graph<T> implements Serializable {
     };
 
     /**
-     *
+     * Add or replace the node. The neighborlist may be null (node located on
+     * another partition).
      * @param node
      * @param neighborlist
-     * @return
+     * @return the previous neighborlist of this node
      */
     public final NeighborList put(
             final T node, final NeighborList neighborlist) {
-        return map.put(node, neighborlist);
+        NeighborList previous = nodes.put(node, neighborlist);
+        addReferrers(nodes.id(node), neighborlist);
+        return previous;
     }
 
     /**
@@ -386,7 +423,7 @@ public class Graph<T> implements Serializable {
      * @return
      */
     public final boolean containsKey(final T node) {
-        return map.containsKey(node);
+        return nodes.contains(node);
     }
 
     /**
@@ -394,7 +431,7 @@ public class Graph<T> implements Serializable {
      * @return
      */
     public final int size() {
-        return map.size();
+        return nodes.size();
     }
 
     /**
@@ -402,19 +439,16 @@ public class Graph<T> implements Serializable {
      * @return
      */
     public final Iterable<Map.Entry<T, NeighborList>> entrySet() {
-        return map.entrySet();
+        return getHashMap().entrySet();
     }
 
     /**
-     *
+     * Snapshot of the nodes of the graph. The list is shared until the graph
+     * changes and must not be modified.
      * @return
      */
     public final ArrayList<T> getNodes() {
-        if (nodes == null) {
-            nodes = new ArrayList<T>(map.keySet());
-        }
-
-        return nodes;
+        return nodes.toList();
     }
 
     /**
@@ -426,48 +460,123 @@ public class Graph<T> implements Serializable {
     public final LinkedList<T> findNeighbors(
             final LinkedList<T> startingPoints,
             final int depth) {
-        LinkedList<T> neighbors = new LinkedList<T>(startingPoints);
-
-        // I can NOT loop over candidates as I will add items to it inside the
-        // loop!
+        // keep the starting points that are not in the graph as well
+        LinkedHashSet<T> neighbors = new LinkedHashSet<T>(startingPoints);
+        int[] starts = new int[startingPoints.size()];
+        int count = 0;
         for (T startNode : startingPoints) {
-            // As depth will be small, I can use recursion here...
-            findNeighbors(neighbors, startNode, depth);
+            int id = nodes.id(startNode);
+            if (id >= 0) {
+                starts[count++] = id;
+            }
+        }
+        int[] found = findNeighbors(starts, count, depth);
+        for (int id : found) {
+            T node = nodes.value(id);
+            if (node != null) {
+                neighbors.add(node);
+            }
         }
-        return neighbors;
+        return new LinkedList<T>(neighbors);
     }
 
-    private void findNeighbors(
-            final LinkedList<T> candidates,
-            final T node,
-            final int currentDepth) {
+    /**
+     * Breadth first search from the starting ids, following depth + 1
+     * levels of edges.
+     * @return the starting ids followed by the ids that were reached
+     */
+    private int[] findNeighbors(
+            final int[] starts,
+            final int count,
+            final int depth) {
 
-        // With the distributed online algorithm, the nl might be null
-        // because it is located on another partition
-        NeighborList nl = getNeighbors(node);
-        if (nl == null) {
-            return;
+        VisitedTable visited = visitedTable();
+        int[] found = new int[Math.max(16, count * 2)];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (visited.visit(starts[i])) {
+                found[size++] = starts[i];
+            }
         }
-
-        for (Neighbor<T> n : nl) {
-            if (!candidates.contains(n.getNode())) {
-                candidates.add(n.getNode());
-                if (currentDepth > 0) {
-                    // don't use current_depth++ here as we will reuse it in
-                    // the for loop !
-                    findNeighbors(candidates, n.getNode(), currentDepth - 1);
+        int levelStart = 0;
+        for (int d = 0; d <= depth && levelStart < size; d++) {
+            int levelEnd = size;
+            for (int i = levelStart; i < levelEnd; i++) {
+                // With the distributed online algorithm, the nl might be null
+                // because it is located on another partition
+                NeighborList nl = nodes.neighbors(found[i]);
+                if (nl == null) {
+                    continue;
+                }
+                for (Neighbor n : nl) {
+                    int id = nodes.id(n);
+                    if (id >= 0 && visited.visit(id)) {
+                        if (size == found.length) {
+                            found = Arrays.copyOf(found, size * 2);
+                        }
+                        found[size++] = id;
+                    }
                 }
             }
+            levelStart = levelEnd;
         }
+        return Arrays.copyOf(found, size);
     }
 
     /**
-     * Get the underlying hash map that stores the nodes and associated
-     * neighborlists.
+     * Get a read-only snapshot of the nodes and associated neighborlists.
      * @return
      */
-    public final HashMap<T, NeighborList> getHashMap() {
-        return map;
+    public final Map<T, NeighborList> getHashMap() {
+        HashMap<T, NeighborList> map = new HashMap<T, NeighborList>(size());
+        for (int id : nodes.ids()) {
+            T node = nodes.value(id);
+            if (node != null) {
+                map.put(node, nodes.neighbors(id));
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Set the pool used by the exhaustive search. Default is the common
+     * ForkJoinPool.
+     * @param searchPool
+     */
+    public final void setSearchPool(final ForkJoinPool searchPool) {
+        this.searchPool = searchPool;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public final ForkJoinPool getSearchPool() {
+        ForkJoinPool pool = searchPool;
+        return pool == null ? ForkJoinPool.commonPool() : pool;
+    }
+
+    /**
+     * The visited table of the current thread, cleared and large enough for
+     * every id of the graph.
+     * @return
+     */
+    private VisitedTable visitedTable() {
+        ThreadLocal<VisitedTable> tables = visitedTables;
+        if (tables == null) {
+            // racing threads may each create one, the extra tables are
+            // simply dropped
+            tables = new ThreadLocal<VisitedTable>() {
+                @Override
+                protected VisitedTable initialValue() {
+                    return new VisitedTable();
+                }
+            };
+            visitedTables = tables;
+        }
+        VisitedTable table = tables.get();
+        table.reset(nodes.capacity());
+        return table;
     }
 
     /**
@@ -481,57 +590,74 @@ public class Graph<T> implements Serializable {
     public final NeighborList search(final T query, final int k)
             throws InterruptedException, ExecutionException {
 
-        int procs = Runtime.getRuntime().availableProcessors();
-        ExecutorService pool = Executors.newFixedThreadPool(procs);
-        List<Future<NeighborList>> results = new ArrayList();
-        for (int i = 0; i < procs; i++) {
-            int start = getNodes().size() / procs * i;
-            int stop = Math.min(
-                    getNodes().size() / procs * (i + 1), getNodes().size());
-            results.add(pool.submit(new SearchTask(nodes, query, start, stop)));
-        }
-
-        // Reduce
-        NeighborList neighbors = new NeighborList(k);
-        for (Future<NeighborList> future : results) {
-            neighbors.addAll(future.get());
-        }
-        pool.shutdown();
-        return neighbors;
+        return search(Collections.singletonList(query), k).get(0);
     }
 
     /**
-     * Class used for multi-thread search.
+     * Multi-thread exhaustive search of several queries, on the search pool.
+     * Queries and nodes are cut in blocks and each task scores one block of
+     * queries against one block of nodes, so every node is read once per
+     * block of queries. Tasks keep their own bounded lists, which are merged
+     * into the results at the end.
+     * @param queries
+     * @param k
+     * @return the k most similar nodes of each query, in the same order
+     * @throws InterruptedException if thread is interrupted
+     * @throws ExecutionException if thread cannot complete
      */
-    private class SearchTask implements Callable<NeighborList> {
-        private final ArrayList<T> nodes;
-        private final T query;
-        private final int start;
-        private final int stop;
-        SearchTask(
-                final ArrayList<T> nodes,
-                final T query,
-                final int start,
-                final int stop) {
+    public final List<NeighborList> search(
+            final List<T> queries,
+            final int k)
+            throws InterruptedException, ExecutionException {
 
-            this.nodes = nodes;
-            this.query = query;
-            this.start = start;
-            this.stop = stop;
+        final Object[] qs = queries.toArray();
+        final ArrayList<T> snapshot = getNodes();
+        final List<NeighborList> results = new ArrayList<NeighborList>(qs.length);
+        for (int i = 0; i < qs.length; i++) {
+            results.add(new NeighborList(k));
+        }
+        final int n = snapshot.size();
+        if (n == 0 || qs.length == 0) {
+            return results;
         }
 
-        @Override
-        public NeighborList call() throws Exception {
-            NeighborList nl = new NeighborList(k);
+        ForkJoinPool pool = getSearchPool();
+        // enough node blocks to keep every worker busy with a single query
+        final int nodeBlock = Math.max(1, Math.min(SEARCH_NODE_BLOCK,
+                (n + 4 * pool.getParallelism() - 1)
+                        / (4 * pool.getParallelism())));
+        final int nodeBlocks = (n + nodeBlock - 1) / nodeBlock;
+        int queryBlocks = (qs.length + SEARCH_QUERY_BLOCK - 1)
+                / SEARCH_QUERY_BLOCK;
+
+        pool.submit(() -> IntStream.range(0, queryBlocks * nodeBlocks)
+                .parallel().forEach(task -> {
+            int qStart = task / nodeBlocks * SEARCH_QUERY_BLOCK;
+            int qStop = Math.min(qs.length, qStart + SEARCH_QUERY_BLOCK);
+            int start = task % nodeBlocks * nodeBlock;
+            int stop = Math.min(n, start + nodeBlock);
+
+            NeighborList[] local = new NeighborList[qStop - qStart];
+            for (int q = 0; q < local.length; q++) {
+                local[q] = new NeighborList(k);
+            }
             for (int i = start; i < stop; i++) {
-                T other = getNodes().get(i);
-                nl.add(new Neighbor(
-                        other,
-                        similarity.similarity(query, other)));
+                T other = snapshot.get(i);
+                for (int q = qStart; q < qStop; q++) {
+                    double sim = similarity.similarity((T) qs[q], other);
+                    NeighborList nl = local[q - qStart];
+                    // skip the allocation when the node would be rejected
+                    if (k <= 0 || nl.size() < k
+                            || sim > nl.peek().getSimilarity()) {
+                        nl.add(new Neighbor(other, sim));
+                    }
+                }
             }
-            return nl;
-
-        }
+            for (int q = qStart; q < qStop; q++) {
+                results.get(q).addAll(local[q - qStart]);
+            }
+        })).get();
+        return results;
     }
 
     /**
@@ -562,7 +688,8 @@ public class Graph<T> implements Serializable {
             final T query,
             final FastSearchConfig conf) {
 
-        return fastSearch(query, conf, getRandomNode());
+        // null if the graph is empty, search is then exhaustive anyway
+        return fastSearch(query, conf, nodes.random(ThreadLocalRandom.current()));
     }
 
     /**
@@ -583,35 +710,42 @@ public class Graph<T> implements Serializable {
             final T start) {
 
         FastSearchResult result = new FastSearchResult(conf.getK());
-        int maxSimilarities = (int) (map.size() / conf.getSpeedup());
+        int size = size();
+        int maxSimilarities = (int) (size / conf.getSpeedup());
 
         // Looking for more nodes than this graph contains...
         // Or fall back to exhaustive search
-        if (conf.getK() >= map.size()
-                || maxSimilarities >= map.size()) {
+        if (conf.getK() >= size
+                || maxSimilarities >= size) {
 
-            for (T node : map.keySet()) {
+            for (int id : nodes.ids()) {
+                T node = nodes.value(id);
+                if (node == null) {
+                    continue;
+                }
                 result.getNeighbors().add(
                         new Neighbor(
                                 node,
-                                similarity.similarity(query, node)));
+                                similarity.similarity(query, node),
+                                id));
                 result.incSimilarities();
             }
             return result;
         }
 
-        T currentNode = start;
-        // Node => Similarity with query node
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        NeighborList neighbors = result.getNeighbors();
+        int current = start == null ? -1 : nodes.id(start);
         // Max number of nodes we will visit is max_similarities
-        HashMap<T, Double> visitedNodes = new HashMap<T, Double>(
-                maxSimilarities);
+        VisitedTable visitedNodes = visitedTable();
         double highestSimilarity = 0;
 
         while (result.getSimilarities() < maxSimilarities) { // Restart...
 
             restart : {
-                // Already been here => restart
-                if (visitedNodes.containsKey(currentNode)) {
+                // Already been here (or removed meanwhile) => restart
+                T currentNode = nodes.value(current);
+                if (currentNode == null || !visitedNodes.visit(current)) {
                     break restart;
                 }
 
@@ -620,6 +754,8 @@ public class Graph<T> implements Serializable {
                         query,
                         currentNode);
                 result.incSimilarities();
+                neighbors.add(new Neighbor(
+                        currentNode, currentNodeSimilarity, current));
 
                 if (currentNodeSimilarity
                         < highestSimilarity / conf.getExpansion()) {
@@ -629,7 +765,7 @@ public class Graph<T> implements Serializable {
                 // Follow the chain of neighbors
                 while (result.getSimilarities() < maxSimilarities) {
 
-                    NeighborList nl = this.getNeighbors(currentNode);
+                    NeighborList nl = nodes.neighbors(current);
 
                     // Node has no neighbor (cross partition edge) => restart or
                     // return
@@ -644,24 +780,27 @@ public class Graph<T> implements Serializable {
                         }
                     }
 
-                    T bestNeighbor = null;
+                    int bestNeighbor = -1;
                     double bestNeighborSimilarity = currentNodeSimilarity;
 
                     for (int i = 0; i < conf.getLongJumps(); i++) {
                         // Check a random node (to simulate long jumps)
-                        T neighbor = getRandomNode();
+                        int neighbor = nodes.randomId(rand);
+                        T neighborNode = nodes.value(neighbor);
 
                         // Already been here => skip
-                        if (visitedNodes.containsKey(neighbor)) {
+                        if (neighborNode == null
+                                || !visitedNodes.visit(neighbor)) {
                             continue;
                         }
 
                         // Compute similarity to query
                         double neighborSimilarity = similarity.similarity(
                                 query,
-                                neighbor);
+                                neighborNode);
                         result.incSimilarities();
-                        visitedNodes.put(neighbor, neighborSimilarity);
+                        neighbors.add(new Neighbor(
+                                neighborNode, neighborSimilarity, neighbor));
 
                         // If this node provides an improved similarity, keep it
                         if (neighborSimilarity > currentNodeSimilarity) {
@@ -675,16 +814,18 @@ public class Graph<T> implements Serializable {
                     // Check the neighbors of current_node and try to find a
                     // node with higher similarity
                     for (Neighbor aNl : nl) {
-                        T neighbor = (T) aNl.getNode();
-                        if (visitedNodes.containsKey(neighbor)) {
+                        int neighbor = nodes.id(aNl);
+                        if (neighbor < 0 || !visitedNodes.visit(neighbor)) {
                             continue;
                         }
+                        T neighborNode = (T) aNl.getNode();
                         // Compute similarity with query
                         double neighborSimilarity = similarity.similarity(
                                 query,
-                                neighbor);
+                                neighborNode);
                         result.incSimilarities();
-                        visitedNodes.put(neighbor, neighborSimilarity);
+                        neighbors.add(new Neighbor(
+                                neighborNode, neighborSimilarity, neighbor));
 
                         // If this node provides an improved similarity, keep it
                         if (neighborSimilarity > bestNeighborSimilarity) {
@@ -704,21 +845,20 @@ public class Graph<T> implements Serializable {
                     // No node provides higher similarity
                     // => we reached the end of this track...
                     // => restart and
-                    if (bestNeighbor == null) {
+                    if (bestNeighbor < 0) {
+                        break restart;
+                    }
+                    current = bestNeighbor;
+                    currentNode = nodes.value(current);
+                    if (currentNode == null) {
                         break restart;
                     }
-                    currentNode = bestNeighbor;
                 }
             } // restart
-            currentNode = getRandomNode();
+            current = nodes.randomId(rand);
             result.incRestarts();
         }
 
-
-        for (Map.Entry<T, Double> entry : visitedNodes.entrySet()) {
-            result.getNeighbors().add(
-                    new Neighbor(entry.getKey(), entry.getValue()));
-        }
         return result;
     }
 
@@ -735,26 +875,30 @@ public class Graph<T> implements Serializable {
                 new BufferedOutputStream(new FileOutputStream(filename)));
         out.write(GEXF_HEADER);
 
-        // Write nodes
+        // Write nodes, using the node ids of the graph
         out.write("<nodes>\n");
-        int nodeId = 0;
-        Map<T, Integer> nodeRegistry = new IdentityHashMap<T, Integer>();
-
-        for (T node : map.keySet()) {
-            nodeRegistry.put(node, nodeId);
+        int[] ids = nodes.ids();
+        for (int nodeId : ids) {
             out.write("<node id=\"" + nodeId
-                    + "\" label=\"" + node.toString() + "\" />\n");
-            nodeId++;
+                    + "\" label=\"" + nodes.value(nodeId).toString()
+                    + "\" />\n");
         }
         out.write("</nodes>\n");
 
         // Write edges
         out.write("<edges>\n");
         int i = 0;
-        for (T source : map.keySet()) {
-            int sourceId = nodeRegistry.get(source);
-            for (Neighbor<T> target : this.getNeighbors(source)) {
-                int targetId = nodeRegistry.get(target.getNode());
+        for (int sourceId : ids) {
+            NeighborList nl = nodes.neighbors(sourceId);
+            if (nl == null) {
+                continue;
+            }
+            for (Neighbor<T> target : nl) {
+                int targetId = nodes.id(target);
+                if (targetId < 0) {
+                    // edge to a node that is not in this graph
+                    continue;
+                }
                 out.write("<edge id=\"" + i + "\" source=\"" + sourceId + "\" "
                         + "target=\"" + targetId + "\" "
                         + "weight=\"" + target.getSimilarity() + "\" />\n");
@@ -786,23 +930,33 @@ public class Graph<T> implements Serializable {
      * Adding a node requires to compute the similarity between the new node
      * and every other node in the graph...
      * @param newNode
-     * @return
+     * @return the id of the new node
      */
     public final int add(final T newNode) {
-        if (containsKey(newNode)) {
+        int[] others = nodes.ids();
+        NeighborList nl = new NeighborList(k);
+        int newId = nodes.add(newNode, nl);
+        if (newId < 0) {
             throw new IllegalArgumentException(
                     "This graph already contains this node");
         }
-        NeighborList nl = new NeighborList(k);
-        for (T otherNode : getNodes()) {
+        for (int other : others) {
+            T otherNode = nodes.value(other);
+            if (otherNode == null) {
+                continue;
+            }
             double sim = similarity.similarity(
                     newNode, otherNode);
-            nl.add(new Neighbor(otherNode, sim));
-            getNeighbors(otherNode).add(new Neighbor(newNode, sim));
+            if (nl.add(new Neighbor(otherNode, sim, other))) {
+                addReferrer(other, newId);
+            }
+            NeighborList otherNl = nodes.neighbors(other);
+            if (otherNl != null
+                    && otherNl.add(new Neighbor(newNode, sim, newId))) {
+                addReferrer(newId, other);
+            }
         }
-        this.put(newNode, nl);
-        nodes = null;
-        return (size() - 1);
+        return newId;
     }
 
     /**
@@ -827,57 +981,175 @@ public class Graph<T> implements Serializable {
     public final void fastAdd(
             final T newNode,
             final OnlineConfig conf) {
+        fastAdd(newNode, conf, new StatisticsContainer());
+    }
+
+    /**
+     * Add a node to the online graph and record the computed similarities
+     * in stats. Several threads may add nodes and search the graph at the
+     * same time, each with its own stats.
+     *
+     * @param newNode
+     * @param conf
+     * @param stats
+     */
+    public final void fastAdd(
+            final T newNode,
+            final OnlineConfig conf,
+            final StatisticsContainer stats) {
         if (containsKey(newNode)) {
             throw new IllegalArgumentException(
                     "This graph already contains this node");
         }
+        long start = System.nanoTime();
         // 3. Search the neighbors of the new node
         conf.setK(getK());
-        NeighborList neighborlist = fastSearch(newNode, conf).getNeighbors();
-        put(newNode, neighborlist);
+        FastSearchResult<T> result = fastSearch(newNode, conf);
+        stats.incSearchSimilarities(result.getSimilarities());
+        stats.incSearchRestarts(result.getRestarts());
+        NeighborList neighborlist = result.getNeighbors();
+        int newId = nodes.add(newNode, neighborlist);
+        if (newId < 0) {
+            throw new IllegalArgumentException(
+                    "This graph already contains this node");
+        }
+        addReferrers(newId, neighborlist);
         // 4. Update existing edges
         // Nodes to analyze at this iteration
-        LinkedList<T> analyze = new LinkedList<T>();
+        int[] analyze = new int[neighborlist.size()];
+        int analyzeCount = 0;
 
         // Nodes to analyze at next iteration
-        LinkedList<T> nextAnalyze = new LinkedList<T>();
+        int[] nextAnalyze = new int[analyze.length];
+        int nextCount = 0;
 
-        // List of already analyzed nodes
-        HashMap<T, Boolean> visited = new HashMap<T, Boolean>();
+        // Nodes already queued for analysis
+        VisitedTable visited = visitedTable();
+        visited.visit(newId);
 
         // Fill the list of nodes to analyze
-        for (Neighbor<T> neighbor : getNeighbors(newNode)) {
-            analyze.add(neighbor.getNode());
+        for (Neighbor neighbor : neighborlist) {
+            int id = nodes.id(neighbor);
+            if (id >= 0 && visited.visit(id)) {
+                analyze[analyzeCount++] = id;
+            }
         }
 
-        StatisticsContainer stats = new StatisticsContainer();
-
         for (int d = 0; d < conf.getUpdateDepth(); d++) {
-            while (!analyze.isEmpty()) {
-                T other = analyze.pop();
-                NeighborList otherNeighborlist = getNeighbors(other);
+            for (int i = 0; i < analyzeCount; i++) {
+                int other = analyze[i];
+                T otherNode = nodes.value(other);
+                NeighborList otherNeighborlist = nodes.neighbors(other);
+                if (otherNode == null || otherNeighborlist == null) {
+                    // removed meanwhile, or located on another partition
+                    continue;
+                }
                 // Add neighbors to the list of nodes to analyze at
                 // next iteration
-                for (Neighbor<T> otherNeighbor : otherNeighborlist) {
-                    if (!visited.containsKey(otherNeighbor.getNode())) {
-                        nextAnalyze.add(otherNeighbor.getNode());
+                for (Neighbor otherNeighbor : otherNeighborlist) {
+                    int id = nodes.id(otherNeighbor);
+                    if (id >= 0 && visited.visit(id)) {
+                        if (nextCount == nextAnalyze.length) {
+                            nextAnalyze = Arrays.copyOf(
+                                    nextAnalyze, nextCount * 2 + 16);
+                        }
+                        nextAnalyze[nextCount++] = id;
                     }
                 }
                 // Try to add the new node (if sufficiently similar)
                 stats.incAddSimilarities();
-                otherNeighborlist.add(new Neighbor(
+                boolean added = otherNeighborlist.add(new Neighbor(
                         newNode,
                         similarity.similarity(
                                 newNode,
-                                other)));
-
-                visited.put(other, Boolean.TRUE);
+                                otherNode),
+                        newId));
+                if (added) {
+                    addReferrer(newId, other);
+                }
             }
+            int[] tmp = analyze;
             analyze = nextAnalyze;
-            nextAnalyze = new LinkedList<T>();
+            analyzeCount = nextCount;
+            nextAnalyze = tmp;
+            nextCount = 0;
+        }
+
+        stats.incAddedNodes();
+        stats.incAddTime(System.nanoTime() - start);
+    }
+
+    /**
+     * Add all nodes to the online graph using several threads. The first
+     * nodes are added by the calling thread, until the graph is large
+     * enough for fast search, then the remaining nodes are shared between
+     * the threads.
+     *
+     * @param newNodes
+     * @param conf
+     * @param threads
+     * @return the statistics of the nodes added by the calling thread
+     * before the others start, followed by those of each thread
+     * @throws InterruptedException if thread is interrupted
+     * @throws ExecutionException if a node cannot be added (for example
+     * because it is already in the graph); the remaining nodes are then
+     * not added, and all threads have stopped when this is thrown
+     */
+    public final List<StatisticsContainer> fastAddAll(
+            final Collection<T> newNodes,
+            final OnlineConfig conf,
+            final int threads)
+            throws InterruptedException, ExecutionException {
+
+        final ArrayList<T> todo = new ArrayList<T>(newNodes);
+        final AtomicInteger next = new AtomicInteger();
+
+        StatisticsContainer seedStats = new StatisticsContainer();
+        while (size() <= 2 * getK() && next.get() < todo.size()) {
+            fastAdd(todo.get(next.getAndIncrement()), conf, seedStats);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<StatisticsContainer>> results =
+                new ArrayList<Future<StatisticsContainer>>(threads);
+        for (int i = 0; i < threads; i++) {
+            results.add(pool.submit(new Callable<StatisticsContainer>() {
+                @Override
+                public StatisticsContainer call() {
+                    StatisticsContainer stats = new StatisticsContainer();
+                    int index;
+                    try {
+                        while ((index = next.getAndIncrement())
+                                < todo.size()) {
+                            fastAdd(todo.get(index), conf, stats);
+                        }
+                    } catch (RuntimeException | Error e) {
+                        // stop the other workers at their next node
+                        next.set(todo.size());
+                        throw e;
+                    }
+                    return stats;
+                }
+            }));
         }
 
-        nodes = null;
+        List<StatisticsContainer> stats =
+                new ArrayList<StatisticsContainer>(threads + 1);
+        stats.add(seedStats);
+        try {
+            for (Future<StatisticsContainer> future : results) {
+                stats.add(future.get());
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            next.set(todo.size());
+            pool.shutdown();
+            // don't let the caller see the graph while workers still write
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            throw e;
+        } finally {
+            pool.shutdownNow();
+        }
+        return stats;
     }
 
     /**
@@ -898,51 +1170,145 @@ public class Graph<T> implements Serializable {
     public final void fastRemove(
             final T nodeToRemove,
             final OnlineConfig conf) {
+        fastRemove(nodeToRemove, conf, new StatisticsContainer());
+    }
 
-        // Build the list of nodes to update
-        LinkedList<T> nodesToUpdate = new LinkedList<T>();
+    /**
+     * Remove a node from the graph and record the computed similarities in
+     * stats. With the reverse index (see setReverseIndex) the nodes pointing
+     * to the removed node are found without scanning the whole graph.
+     * @param nodeToRemove
+     * @param conf
+     * @param stats
+     */
+    public final void fastRemove(
+            final T nodeToRemove,
+            final OnlineConfig conf,
+            final StatisticsContainer stats) {
 
-        for (T node : getNodes()) {
-            NeighborList nl = getNeighbors(node);
-            if (nl.containsNode(nodeToRemove)) {
-                nodesToUpdate.add(node);
-                nl.removeNode(nodeToRemove);
-            }
+        int removedId = nodes.id(nodeToRemove);
+        if (removedId < 0) {
+            return;
         }
 
-        // Build the list of candidates
-        LinkedList<T> initialCandidates = new LinkedList<T>();
-        initialCandidates.add(nodeToRemove);
-        initialCandidates.addAll(nodesToUpdate);
-
-        LinkedList<T> candidates = findNeighbors(
-                initialCandidates, conf.getUpdateDepth());
-        while (candidates.contains(nodeToRemove)) {
-            candidates.remove(nodeToRemove);
+        // Build the list of nodes to update
+        int[] referrers;
+        Referrers index = reverseIndex ? nodes.referrers(removedId, false)
+                : null;
+        if (index != null) {
+            referrers = index.toArray();
+        } else if (reverseIndex) {
+            referrers = new int[0];
+        } else {
+            referrers = nodes.ids();
+        }
+        int[] nodesToUpdate = new int[referrers.length + 1];
+        int updateCount = 0;
+        for (int id : referrers) {
+            NeighborList nl = nodes.neighbors(id);
+            if (id != removedId && nl != null && nl.removeNode(nodeToRemove)) {
+                nodesToUpdate[updateCount++] = id;
+            }
         }
 
-        StatisticsContainer stats = new StatisticsContainer();
+        // Build the list of candidates
+        nodesToUpdate[updateCount] = removedId;
+        int[] candidates = findNeighbors(
+                nodesToUpdate, updateCount + 1, conf.getUpdateDepth());
 
         // Update the nodes_to_update
-        for (T nodeToUpdate : nodesToUpdate) {
-            NeighborList nlToUpdate = getNeighbors(nodeToUpdate);
-            for (T candidate : candidates) {
-                if (candidate.equals(nodeToUpdate)) {
+        for (int i = 0; i < updateCount; i++) {
+            int nodeToUpdate = nodesToUpdate[i];
+            T updateNode = nodes.value(nodeToUpdate);
+            NeighborList nlToUpdate = nodes.neighbors(nodeToUpdate);
+            if (updateNode == null || nlToUpdate == null) {
+                continue;
+            }
+            for (int candidate : candidates) {
+                T candidateNode = nodes.value(candidate);
+                if (candidate == nodeToUpdate || candidate == removedId
+                        || candidateNode == null) {
                     continue;
                 }
 
                 stats.incRemoveSimilarities();
                 double sim = similarity.similarity(
-                        nodeToUpdate,
-                        candidate);
+                        updateNode,
+                        candidateNode);
+
+                if (nlToUpdate.add(new Neighbor(candidateNode, sim, candidate))) {
+                    addReferrer(candidate, nodeToUpdate);
+                }
+            }
+        }
+
+        // Drop the reverse edges of the removed node, then the node itself
+        NeighborList removedNl = nodes.neighbors(removedId);
+        if (reverseIndex && removedNl != null) {
+            for (Neighbor n : removedNl) {
+                Referrers set = nodes.referrers(nodes.id(n), false);
+                if (set != null) {
+                    set.remove(removedId);
+                }
+            }
+        }
+        nodes.remove(nodeToRemove);
+    }
 
-                nlToUpdate.add(new Neighbor(candidate, sim));
+    /**
+     * Maintain an index of the reverse edges of the graph, so that
+     * fastRemove only looks at the nodes that point to the removed node
+     * instead of every node of the graph. Enabling the index builds it from
+     * the current neighborlists. Edges added directly to a neighborlist
+     * (instead of through this graph) are not indexed.
+     * @param reverseIndex
+     */
+    public final void setReverseIndex(final boolean reverseIndex) {
+        if (reverseIndex == this.reverseIndex) {
+            return;
+        }
+        nodes.clearReferrers();
+        this.reverseIndex = reverseIndex;
+        if (reverseIndex) {
+            for (int id : nodes.ids()) {
+                addReferrers(id, nodes.neighbors(id));
             }
         }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public final boolean isReverseIndex() {
+        return reverseIndex;
+    }
+
+    /**
+     * Record that source may point to target.
+     */
+    private void addReferrer(final int target, final int source) {
+        if (!reverseIndex) {
+            return;
+        }
+        Referrers set = nodes.referrers(target, true);
+        if (set != null && set.add(source)) {
+            // drop the nodes that do not point to target anymore
+            final T targetNode = nodes.value(target);
+            set.compact(id -> {
+                NeighborList nl = nodes.neighbors(id);
+                return nl != null && nl.containsNode(targetNode);
+            });
+        }
+    }
 
-        // Remove node_to_remove
-        map.remove(nodeToRemove);
-        nodes = null;
+    private void addReferrers(final int source, final NeighborList nl) {
+        if (!reverseIndex || nl == null) {
+            return;
+        }
+        for (Neighbor n : nl) {
+            addReferrer(nodes.id(n), source);
+        }
     }
 
     /**
@@ -954,7 +1320,7 @@ public class Graph<T> implements Serializable {
      */
     public final int compare(final Graph<T> other) {
         int correctEdges = 0;
-        for (T node : map.keySet()) {
+        for (T node : getNodes()) {
             correctEdges += getNeighbors(node).countCommons(
                     other.getNeighbors(node));
         }
@@ -963,7 +1329,7 @@ public class Graph<T> implements Serializable {
 
     @Override
     public final String toString() {
-        return map.toString();
+        return getHashMap().toString();
     }
 
     private static final int HASH_BASE = 3;
@@ -972,7 +1338,7 @@ public class Graph<T> implements Serializable {
     @Override
     public final int hashCode() {
         int hash = HASH_BASE;
-        hash = HASH_MULT * hash + this.map.hashCode();
+        hash = HASH_MULT * hash + this.getHashMap().hashCode();
         return hash;
     }
 
@@ -986,6 +1352,6 @@ public class Graph<T> implements Serializable {
         }
         final Graph<?> other = (Graph<?>) obj;
 
-        return this.map.equals(other.map);
+        return this.getHashMap().equals(other.getHashMap());
     }
 }
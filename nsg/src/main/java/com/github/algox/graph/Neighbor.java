@@ -11,10 +11,18 @@ import java.security.InvalidParameterException;
 public class Neighbor<T> implements Comparable, Serializable {
     private final T node;
     private final double similarity;
+    // id of node in the registry of the graph that created this neighbor,
+    // only a hint: it is checked against the registry before use
+    final transient int id;
 
     public Neighbor(final T node, final double similarity) {
+        this(node, similarity, -1);
+    }
+
+    Neighbor(final T node, final double similarity, final int id) {
         this.node = node;
         this.similarity = similarity;
+        this.id = id;
     }
 
     public final T getNode() {
@@ -1,33 +1,251 @@
 package com.github.algox.graph;
 
-import com.github.algox.utils.SynchronizedBoundedPriorityQueue;
-
 import java.io.Serializable;
+import java.util.AbstractQueue;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.PriorityQueue;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Predicate;
 
 /**
  * @author: yaheng.song
  * @date: 2019/4/11 1:12 PM
- * @description:
+ * @description: bounded list of the most similar neighbors, safe for concurrent use.
+ * The neighbors are kept in an immutable array sorted by decreasing similarity which
+ * is swapped with a CAS on every update, so readers (size, contains, iteration) never
+ * block and always see a consistent snapshot, while writers retry on conflict. The
+ * head of the queue (peek / poll) is the least similar neighbor, as with the former
+ * priority queue.
  */
-public class NeighborList extends SynchronizedBoundedPriorityQueue<Neighbor> implements Serializable {
+public class NeighborList extends AbstractQueue<Neighbor> implements Serializable {
+    private static final Neighbor[] EMPTY = new Neighbor[0];
+    private static final AtomicReferenceFieldUpdater<NeighborList, Neighbor[]> ELEMENTS =
+            AtomicReferenceFieldUpdater.newUpdater(NeighborList.class, Neighbor[].class, "elements");
+
+    private final int capacity;
+    private volatile Neighbor[] elements = EMPTY;
+
     /**
      * Copy constructor.
      *
      * @param origin
      */
     public NeighborList(final NeighborList origin) {
-        super(origin.size());
-        this.addAll(origin);
+        this.capacity = origin.capacity;
+        this.elements = origin.elements;
     }
 
     /**
      * Create a new neighborlist of given size.
-     * @param size size of the neighborlist
+     * @param size size of the neighborlist, 0 for unbounded
      */
     public NeighborList(final int size) {
-        super(size);
+        this.capacity = size;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public final int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Add the neighbor if its node is not in the list yet and, when the list
+     * is full, if it is more similar than the least similar neighbor (which
+     * is then dropped).
+     * @param neighbor
+     * @return true if the neighbor was added
+     */
+    @Override
+    public final boolean offer(final Neighbor neighbor) {
+        if (neighbor == null) {
+            throw new NullPointerException();
+        }
+        double similarity = neighbor.getSimilarity();
+        while (true) {
+            Neighbor[] current = elements;
+            int size = current.length;
+            boolean full = capacity > 0 && size >= capacity;
+            if (full && similarity <= current[size - 1].getSimilarity()) {
+                return false;
+            }
+            int pos = size;
+            for (int i = 0; i < size; i++) {
+                if (current[i].equals(neighbor)) {
+                    return false;
+                }
+                if (pos == size && current[i].getSimilarity() < similarity) {
+                    pos = i;
+                }
+            }
+            Neighbor[] next = new Neighbor[full ? size : size + 1];
+            System.arraycopy(current, 0, next, 0, pos);
+            next[pos] = neighbor;
+            System.arraycopy(current, pos, next, pos + 1, next.length - pos - 1);
+            if (ELEMENTS.compareAndSet(this, current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Same as offer: returns false instead of throwing when the neighbor is
+     * rejected.
+     * @param neighbor
+     * @return
+     */
+    @Override
+    public final boolean add(final Neighbor neighbor) {
+        return offer(neighbor);
+    }
+
+    /**
+     * Remove and return the least similar neighbor.
+     * @return
+     */
+    @Override
+    public final Neighbor poll() {
+        while (true) {
+            Neighbor[] current = elements;
+            if (current.length == 0) {
+                return null;
+            }
+            Neighbor[] next = Arrays.copyOf(current, current.length - 1);
+            if (ELEMENTS.compareAndSet(this, current, next)) {
+                return current[current.length - 1];
+            }
+        }
+    }
+
+    /**
+     * The least similar neighbor.
+     * @return
+     */
+    @Override
+    public final Neighbor peek() {
+        Neighbor[] current = elements;
+        return current.length == 0 ? null : current[current.length - 1];
+    }
+
+    /**
+     * The most similar neighbor, or null if the list is empty.
+     * @return
+     */
+    public final Neighbor best() {
+        Neighbor[] current = elements;
+        return current.length == 0 ? null : current[0];
+    }
+
+    @Override
+    public final int size() {
+        return elements.length;
+    }
+
+    @Override
+    public final boolean isEmpty() {
+        return elements.length == 0;
+    }
+
+    @Override
+    public final boolean contains(final Object o) {
+        if (o == null) {
+            return false;
+        }
+        for (Neighbor n : elements) {
+            if (n.equals(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public final boolean remove(final Object o) {
+        return removeIf(n -> n.equals(o));
+    }
+
+    @Override
+    public final boolean removeIf(final Predicate<? super Neighbor> filter) {
+        while (true) {
+            Neighbor[] current = elements;
+            Neighbor[] next = new Neighbor[current.length];
+            int size = 0;
+            for (Neighbor n : current) {
+                if (!filter.test(n)) {
+                    next[size++] = n;
+                }
+            }
+            if (size == current.length) {
+                return false;
+            }
+            if (ELEMENTS.compareAndSet(this, current, Arrays.copyOf(next, size))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public final void clear() {
+        elements = EMPTY;
+    }
+
+    /**
+     * Iterate over a snapshot of the list, from the most to the least
+     * similar neighbor. Concurrent updates are not reflected.
+     * @return
+     */
+    @Override
+    public final Iterator<Neighbor> iterator() {
+        final Neighbor[] snapshot = elements;
+        return new Iterator<Neighbor>() {
+            private int cursor;
+            private Neighbor last;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < snapshot.length;
+            }
+
+            @Override
+            public Neighbor next() {
+                if (cursor >= snapshot.length) {
+                    throw new NoSuchElementException();
+                }
+                last = snapshot[cursor++];
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                NeighborList.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    @Override
+    public final Object[] toArray() {
+        Neighbor[] current = elements;
+        return Arrays.copyOf(current, current.length, Object[].class);
+    }
+
+    @Override
+    public final <T> T[] toArray(final T[] a) {
+        Neighbor[] current = elements;
+        if (a.length < current.length) {
+            return (T[]) Arrays.copyOf(current, current.length, a.getClass());
+        }
+        System.arraycopy(current, 0, a, 0, current.length);
+        if (a.length > current.length) {
+            a[current.length] = null;
+        }
+        return a;
     }
 
     /**
@@ -56,31 +274,25 @@ public class NeighborList extends SynchronizedBoundedPriorityQueue<Neighbor> imp
      * @return
      */
     public final int countCommons(final NeighborList other) {
-        // Make a copy of both neighborlists
-        PriorityQueue<Neighbor> copyThis = new PriorityQueue<Neighbor>(this);
-        PriorityQueue<Neighbor> copyOther = new PriorityQueue<Neighbor>(other);
+        // Both snapshots are sorted by decreasing similarity
+        Neighbor[] mine = this.elements;
+        Neighbor[] theirs = other.elements;
 
         int count = 0;
-        Neighbor thisNeighbor = copyThis.poll();
-        Neighbor otherNeighbor = copyOther.poll();
-
-        while (true) {
-            if (thisNeighbor == null || otherNeighbor == null) {
-                // We reached the end of at least one neighborlist
-                break;
-            }
-            double delta = thisNeighbor.getSimilarity() - otherNeighbor.getSimilarity();
+        int i = 0;
+        int j = 0;
+        while (i < mine.length && j < theirs.length) {
+            double delta = mine[i].getSimilarity() - theirs[j].getSimilarity();
             if (delta < EPSILON && delta > -EPSILON) {
                 count++;
-                thisNeighbor = copyThis.poll();
-                otherNeighbor = copyOther.poll();
+                i++;
+                j++;
 
-            } else if (thisNeighbor.getSimilarity()
-                    > otherNeighbor.getSimilarity()) {
-                otherNeighbor = copyOther.poll();
+            } else if (delta < 0) {
+                j++;
 
             } else {
-                thisNeighbor = copyThis.poll();
+                i++;
             }
         }
         return count;
@@ -93,7 +305,7 @@ public class NeighborList extends SynchronizedBoundedPriorityQueue<Neighbor> imp
      * @return
      */
     public final <T> boolean containsNode(final T node) {
-        for (Neighbor n : this) {
+        for (Neighbor n : elements) {
             if (n.getNode().equals(node)) {
                 return true;
             }
@@ -107,13 +319,7 @@ public class NeighborList extends SynchronizedBoundedPriorityQueue<Neighbor> imp
      * @return true if a neighbor was effectively removed from the list.
      */
     public final <T> boolean removeNode(final T node) {
-        for (Neighbor n : this) {
-            if (n.getNode().equals(node)) {
-                this.remove(n);
-                return true;
-            }
-        }
-        return false;
+        return removeIf(n -> n.getNode().equals(node));
     }
 
     /**
@@ -123,4 +329,27 @@ public class NeighborList extends SynchronizedBoundedPriorityQueue<Neighbor> imp
     public final void prune(final double threshold) {
         removeIf(neighbor -> neighbor.getSimilarity() < threshold);
     }
+
+    /**
+     * Two lists are equal if they hold the same nodes.
+     * @param other
+     * @return
+     */
+    @Override
+    public final boolean equals(final Object other) {
+        if (!(other instanceof NeighborList)) {
+            return false;
+        }
+        NeighborList otherList = (NeighborList) other;
+        return this.containsAll(otherList) && otherList.containsAll(this);
+    }
+
+    @Override
+    public final int hashCode() {
+        int hash = 0;
+        for (Neighbor n : elements) {
+            hash += n.hashCode();
+        }
+        return hash;
+    }
 }
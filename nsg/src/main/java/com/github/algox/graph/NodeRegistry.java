@@ -0,0 +1,316 @@
+package com.github.algox.graph;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interns the nodes of a graph: every node gets a dense int id once, and its
+ * value and neighborlist are stored in arrays indexed by that id, so that
+ * traversals, visited sets and random draws work on ints instead of hashing
+ * the nodes. Ids of removed nodes are reused.
+ *
+ * Writers synchronize on the registry. Readers take no lock: a slot is always
+ * written before the id is published in the id map, so an id obtained from
+ * id() is backed by the current arrays.
+ *
+ * @param <T>
+ */
+class NodeRegistry<T> implements Serializable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ConcurrentHashMap<T, Integer> ids =
+            new ConcurrentHashMap<T, Integer>();
+    private volatile AtomicReferenceArray<T> values =
+            new AtomicReferenceArray<T>(INITIAL_CAPACITY);
+    private volatile AtomicReferenceArray<NeighborList> lists =
+            new AtomicReferenceArray<NeighborList>(INITIAL_CAPACITY);
+    // reverse edges, only maintained when the graph asks for it
+    private volatile AtomicReferenceArray<Referrers> referrers =
+            new AtomicReferenceArray<Referrers>(INITIAL_CAPACITY);
+    // ids in use, densely packed for random draws
+    private volatile AtomicIntegerArray live =
+            new AtomicIntegerArray(INITIAL_CAPACITY);
+    private volatile int size;
+    // written under the lock only
+    private int[] positions = new int[INITIAL_CAPACITY];
+    private int[] free = new int[0];
+    private int freeCount;
+    private int highest;
+    // cache returned by toList(), cleared on every change
+    private transient volatile ArrayList<T> list;
+
+    /**
+     * Register the node.
+     * @param node
+     * @param neighborlist may be null
+     * @return the id of the node, or -1 if it was already registered
+     */
+    final synchronized int add(final T node, final NeighborList neighborlist) {
+        if (ids.containsKey(node)) {
+            return -1;
+        }
+        int id;
+        if (freeCount > 0) {
+            id = free[--freeCount];
+        } else {
+            id = highest++;
+            ensureCapacity(highest);
+        }
+        values.set(id, node);
+        lists.set(id, neighborlist);
+        positions[id] = size;
+        live.set(size, id);
+        size = size + 1;
+        ids.put(node, id);
+        list = null;
+        return id;
+    }
+
+    /**
+     * Register the node or replace its neighborlist.
+     * @param node
+     * @param neighborlist may be null
+     * @return the previous neighborlist
+     */
+    final synchronized NeighborList put(
+            final T node, final NeighborList neighborlist) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            add(node, neighborlist);
+            return null;
+        }
+        return lists.getAndSet(id, neighborlist);
+    }
+
+    /**
+     * Unregister the node, moving the last live id into its position.
+     * @param node
+     * @return the id the node had, or -1 if it was not registered
+     */
+    final synchronized int remove(final Object node) {
+        Integer boxed = ids.remove(node);
+        if (boxed == null) {
+            return -1;
+        }
+        int id = boxed;
+        int pos = positions[id];
+        int last = size - 1;
+        int moved = live.get(last);
+        live.set(pos, moved);
+        positions[moved] = pos;
+        size = last;
+        values.set(id, null);
+        lists.set(id, null);
+        referrers.set(id, null);
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, Math.max(INITIAL_CAPACITY, freeCount * 2));
+        }
+        free[freeCount++] = id;
+        list = null;
+        return id;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        int current = values.length();
+        if (capacity <= current) {
+            return;
+        }
+        int grown = Math.max(capacity, current * 2);
+        AtomicReferenceArray<T> newValues = new AtomicReferenceArray<T>(grown);
+        AtomicReferenceArray<NeighborList> newLists =
+                new AtomicReferenceArray<NeighborList>(grown);
+        AtomicReferenceArray<Referrers> newReferrers =
+                new AtomicReferenceArray<Referrers>(grown);
+        AtomicIntegerArray newLive = new AtomicIntegerArray(grown);
+        for (int i = 0; i < current; i++) {
+            newValues.set(i, values.get(i));
+            newLists.set(i, lists.get(i));
+            newReferrers.set(i, referrers.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+            newLive.set(i, live.get(i));
+        }
+        values = newValues;
+        lists = newLists;
+        referrers = newReferrers;
+        live = newLive;
+        positions = Arrays.copyOf(positions, grown);
+    }
+
+    /**
+     *
+     * @param node
+     * @return the id of the node, or -1 if it is not registered
+     */
+    final int id(final Object node) {
+        Integer id = ids.get(node);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Id of the node of this neighbor, using the id it carries when it is
+     * still valid.
+     * @param neighbor
+     * @return
+     */
+    final int id(final Neighbor neighbor) {
+        int id = neighbor.id;
+        AtomicReferenceArray<T> current = values;
+        if (id >= 0 && id < current.length()
+                && current.get(id) == neighbor.getNode()) {
+            return id;
+        }
+        return id(neighbor.getNode());
+    }
+
+    /**
+     *
+     * @param node
+     * @return
+     */
+    final boolean contains(final Object node) {
+        return ids.containsKey(node);
+    }
+
+    /**
+     *
+     * @param id
+     * @return the node, or null if the id is not in use
+     */
+    final T value(final int id) {
+        AtomicReferenceArray<T> current = values;
+        return id >= 0 && id < current.length() ? current.get(id) : null;
+    }
+
+    /**
+     *
+     * @param id
+     * @return the neighborlist, or null if the id is not in use or the node
+     * has no neighborlist
+     */
+    final NeighborList neighbors(final int id) {
+        AtomicReferenceArray<NeighborList> current = lists;
+        return id >= 0 && id < current.length() ? current.get(id) : null;
+    }
+
+    /**
+     * The reverse edges of this node.
+     * @param id
+     * @param create create the set if the node has none yet
+     * @return null if the id is not in use, or if the node has no set and
+     * create is false
+     */
+    final Referrers referrers(final int id, final boolean create) {
+        AtomicReferenceArray<Referrers> current = referrers;
+        if (id < 0 || id >= current.length()) {
+            return null;
+        }
+        Referrers set = current.get(id);
+        if (set == null && create) {
+            return createReferrers(id);
+        }
+        return set;
+    }
+
+    private synchronized Referrers createReferrers(final int id) {
+        // under the lock, so the set cannot be lost by a concurrent grow
+        if (values.get(id) == null) {
+            return null;
+        }
+        Referrers set = referrers.get(id);
+        if (set == null) {
+            set = new Referrers();
+            referrers.set(id, set);
+        }
+        return set;
+    }
+
+    /**
+     * Drop all reverse edges.
+     */
+    final synchronized void clearReferrers() {
+        referrers = new AtomicReferenceArray<Referrers>(values.length());
+    }
+
+    /**
+     *
+     * @return
+     */
+    final int size() {
+        return size;
+    }
+
+    /**
+     * Upper bound of the ids in use.
+     * @return
+     */
+    final int capacity() {
+        return values.length();
+    }
+
+    /**
+     * Draw the id of a random node.
+     * @param rand
+     * @return -1 if the registry is empty
+     */
+    final int randomId(final Random rand) {
+        while (true) {
+            int n = size;
+            AtomicIntegerArray current = live;
+            if (n == 0) {
+                return -1;
+            }
+            int id = current.get(rand.nextInt(Math.min(n, current.length())));
+            // the slot may have been reused by a concurrent remove
+            if (value(id) != null) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Draw a random node.
+     * @param rand
+     * @return null if the registry is empty
+     */
+    final T random(final Random rand) {
+        int id = randomId(rand);
+        return id < 0 ? null : value(id);
+    }
+
+    /**
+     * Snapshot of the ids in use.
+     * @return
+     */
+    final synchronized int[] ids() {
+        int[] snapshot = new int[size];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = live.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Snapshot of the registered nodes. The list is cached until the next
+     * change and must not be modified.
+     * @return
+     */
+    final ArrayList<T> toList() {
+        ArrayList<T> current = list;
+        if (current == null) {
+            synchronized (this) {
+                current = new ArrayList<T>(size);
+                for (int i = 0; i < size; i++) {
+                    current.add(values.get(live.get(i)));
+                }
+                list = current;
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.algox.graph;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Ids of the nodes whose neighborlist may contain a given node (the reverse
+ * edges of the graph). Edges dropped from a neighborlist are not removed from
+ * here, so this is a superset that must be checked against the neighborlists;
+ * compact() drops the stale ids once the set has doubled since the last
+ * compaction.
+ */
+class Referrers implements Serializable {
+    private static final int MIN_LIMIT = 16;
+
+    private int[] ids = new int[4];
+    private int size;
+    private int limit = MIN_LIMIT;
+
+    /**
+     *
+     * @param id
+     * @return true if the set is due for compaction
+     */
+    final synchronized boolean add(final int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return false;
+            }
+        }
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = id;
+        return size >= limit;
+    }
+
+    /**
+     *
+     * @param id
+     */
+    final synchronized void remove(final int id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                ids[i] = ids[--size];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Keep only the ids accepted by keep.
+     * @param keep
+     */
+    final synchronized void compact(final IntPredicate keep) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (keep.test(ids[i])) {
+                ids[kept++] = ids[i];
+            }
+        }
+        size = kept;
+        limit = Math.max(MIN_LIMIT, 2 * size);
+    }
+
+    /**
+     *
+     * @return
+     */
+    final synchronized int[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+}
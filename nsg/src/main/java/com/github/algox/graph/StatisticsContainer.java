@@ -15,6 +15,9 @@ public class StatisticsContainer implements Serializable {
     private int addSimilarities;
     private int removeSimilarities;
 
+    private int addedNodes;
+    private long addTime;
+
     /**
      *
      * @return
@@ -138,6 +141,62 @@ public class StatisticsContainer implements Serializable {
         removeSimilarities += value;
     }
 
+    /**
+     * Number of nodes added to the graph.
+     * @return
+     */
+    public final int getAddedNodes() {
+        return addedNodes;
+    }
+
+    /**
+     * Time spent adding nodes, in nanoseconds.
+     * @return
+     */
+    public final long getAddTime() {
+        return addTime;
+    }
+
+    /**
+     * Added nodes per second.
+     * @return
+     */
+    public final double getAddThroughput() {
+        if (addTime == 0) {
+            return 0;
+        }
+        return addedNodes * 1E9 / addTime;
+    }
+
+    /**
+     *
+     */
+    public final void incAddedNodes() {
+        addedNodes++;
+    }
+
+    /**
+     *
+     * @param nanos
+     */
+    public final void incAddTime(final long nanos) {
+        addTime += nanos;
+    }
+
+    /**
+     * Add the counters of other to this container.
+     * @param other
+     */
+    public final void add(final StatisticsContainer other) {
+        searchSimilarities += other.searchSimilarities;
+        searchRestarts += other.searchRestarts;
+        searchCrossPartitionRestarts += other.searchCrossPartitionRestarts;
+        addSimilarities += other.addSimilarities;
+        removeSimilarities += other.removeSimilarities;
+        addedNodes += other.addedNodes;
+        addTime += other.addTime;
+    }
+
     @Override
     public final String toString() {
         return String.format(
@@ -145,11 +204,15 @@ public class StatisticsContainer implements Serializable {
                         + "Search restarts: %d\n"
                         + "Search cross-partition restarts: %d\n"
                         + "Add similarities: %d\n"
-                        + "Remove similarities: %d\n",
+                        + "Remove similarities: %d\n"
+                        + "Added nodes: %d\n"
+                        + "Add throughput: %.1f nodes/s\n",
                 searchSimilarities,
                 searchRestarts,
                 searchCrossPartitionRestarts,
                 addSimilarities,
-                removeSimilarities);
+                removeSimilarities,
+                addedNodes,
+                getAddThroughput());
     }
 }
@@ -0,0 +1,55 @@
+package com.github.algox.graph;
+
+import java.util.Arrays;
+
+/**
+ * Visited marks over the int ids of a NodeRegistry, reused across searches.
+ * Each graph keeps one table per thread, so a table is sized for the graph
+ * it serves and is released with it. Marks are epoch stamps: bumping the
+ * epoch clears the whole table in O(1).
+ */
+class VisitedTable {
+    private int[] visited = new int[0];
+    private int epoch;
+
+    /**
+     * Clear the table, growing it to capacity ids if needed.
+     * @param capacity number of ids
+     */
+    final void reset(final int capacity) {
+        if (visited.length < capacity) {
+            visited = new int[capacity];
+            epoch = 0;
+        }
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            epoch = 1;
+        }
+    }
+
+    /**
+     * Mark id as visited.
+     * @param id
+     * @return false if it was already visited since the last reset
+     */
+    final boolean visit(final int id) {
+        if (id >= visited.length) {
+            // the registry grew during the search
+            visited = Arrays.copyOf(visited, Math.max(id + 1, visited.length * 2));
+        }
+        if (visited[id] == epoch) {
+            return false;
+        }
+        visited[id] = epoch;
+        return true;
+    }
+
+    /**
+     *
+     * @param id
+     * @return
+     */
+    final boolean isVisited(final int id) {
+        return id < visited.length && visited[id] == epoch;
+    }
+}
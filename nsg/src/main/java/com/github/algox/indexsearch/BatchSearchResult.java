@@ -0,0 +1,49 @@
+package com.github.algox.indexsearch;
+
+/**
+ * Results of NsgIndex.searchBatch: ids[q] and distances[q] hold the top-k of query q,
+ * nearest first, together with throughput counters for the whole batch.
+ */
+public class BatchSearchResult {
+    private final int[][] ids;
+    private final float[][] distances;
+    private final long elapsedNanos;
+    private final long distanceCount;
+
+    public BatchSearchResult(int[][] ids, float[][] distances, long elapsedNanos, long distanceCount) {
+        this.ids = ids;
+        this.distances = distances;
+        this.elapsedNanos = elapsedNanos;
+        this.distanceCount = distanceCount;
+    }
+
+    public int[][] getIds() {
+        return ids;
+    }
+
+    public float[][] getDistances() {
+        return distances;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long getDistanceCount() {
+        return distanceCount;
+    }
+
+    public double getQueriesPerSecond() {
+        return elapsedNanos == 0 ? 0 : ids.length * 1e9 / elapsedNanos;
+    }
+
+    public double getDistanceComputationsPerQuery() {
+        return ids.length == 0 ? 0 : (double) distanceCount / ids.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queries = %d, qps = %.1f, distance computations per query = %.1f",
+                ids.length, getQueriesPerSecond(), getDistanceComputationsPerQuery());
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.algox.indexsearch;
+
+/**
+ * Sorted, bounded pool of search candidates kept in parallel primitive arrays
+ * (ids, distances and the "not yet expanded" flags), ordered by ascending distance.
+ */
+public class CandidatePool {
+    private int[] ids;
+    private float[] distances;
+    private boolean[] flags;
+    private int size;
+    private int capacity;
+
+    public CandidatePool(int capacity) {
+        this.ids = new int[capacity];
+        this.distances = new float[capacity];
+        this.flags = new boolean[capacity];
+        this.capacity = capacity;
+    }
+
+    /**
+     * Empty the pool and make sure it can hold capacity entries.
+     */
+    public void reset(int capacity) {
+        if (ids.length < capacity) {
+            ids = new int[capacity];
+            distances = new float[capacity];
+            flags = new boolean[capacity];
+        }
+        this.capacity = capacity;
+        this.size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public int id(int i) {
+        return ids[i];
+    }
+
+    public float distance(int i) {
+        return distances[i];
+    }
+
+    public boolean isUnexpanded(int i) {
+        return flags[i];
+    }
+
+    public void markExpanded(int i) {
+        flags[i] = false;
+    }
+
+    /**
+     * The largest distance in a full pool, or +inf while it still has room.
+     * A pool of capacity 0 is always full and accepts nothing: -inf.
+     */
+    public float worst() {
+        if (size < capacity) return Float.POSITIVE_INFINITY;
+        return size == 0 ? Float.NEGATIVE_INFINITY : distances[size - 1];
+    }
+
+    /**
+     * Insert a candidate, dropping the farthest one when the pool is full.
+     * @return the position of the new candidate, or capacity() when it was
+     * rejected (too far away or already present)
+     */
+    public int insert(int id, float distance) {
+        if (size == capacity && (size == 0 || distance >= distances[size - 1])) return capacity;
+        int left = 0;
+        int right = size;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (distances[mid] > distance) {
+                right = mid;
+            } else {
+                left = mid + 1;
+            }
+        }
+        for (int i = left - 1; i >= 0 && distances[i] == distance; i --) {
+            if (ids[i] == id) return capacity;
+        }
+        int end = size == capacity ? size - 1 : size;
+        System.arraycopy(ids, left, ids, left + 1, end - left);
+        System.arraycopy(distances, left, distances, left + 1, end - left);
+        System.arraycopy(flags, left, flags, left + 1, end - left);
+        ids[left] = id;
+        distances[left] = distance;
+        flags[left] = true;
+        if (size < capacity) size ++;
+        return left;
+    }
+}
@@ -9,4 +9,66 @@ public class CommonDistance implements Distance {
         }
         return v;
     }
+
+    /**
+     * Squared L2 over float32, unrolled by four with independent accumulators
+     * so consecutive iterations do not wait on one dependency chain.
+     */
+    @Override
+    public float distance(float[] v1, int offset1, float[] v2, int offset2, int dim) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (int end = dim & ~3; i < end; i += 4) {
+            float d0 = v1[offset1 + i] - v2[offset2 + i];
+            float d1 = v1[offset1 + i + 1] - v2[offset2 + i + 1];
+            float d2 = v1[offset1 + i + 2] - v2[offset2 + i + 2];
+            float d3 = v1[offset1 + i + 3] - v2[offset2 + i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < dim; i ++) {
+            float d = v1[offset1 + i] - v2[offset2 + i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Squared L2 that gives up once the running sum reaches upperBound, checking
+     * after every block of 16 dimensions. The partial sum only grows, so a
+     * partial result >= upperBound proves the full distance is too.
+     */
+    @Override
+    public float distance(float[] v1, int offset1, float[] v2, int offset2, int dim, float upperBound) {
+        float sum = 0;
+        int i = 0;
+        for (int end = dim & ~15; i < end; i += 16) {
+            float s0 = 0;
+            float s1 = 0;
+            float s2 = 0;
+            float s3 = 0;
+            for (int j = i; j < i + 16; j += 4) {
+                float d0 = v1[offset1 + j] - v2[offset2 + j];
+                float d1 = v1[offset1 + j + 1] - v2[offset2 + j + 1];
+                float d2 = v1[offset1 + j + 2] - v2[offset2 + j + 2];
+                float d3 = v1[offset1 + j + 3] - v2[offset2 + j + 3];
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            sum += (s0 + s1) + (s2 + s3);
+            if (sum >= upperBound) return sum;
+        }
+        for (; i < dim; i ++) {
+            float d = v1[offset1 + i] - v2[offset2 + i];
+            sum += d * d;
+        }
+        return sum;
+    }
 }
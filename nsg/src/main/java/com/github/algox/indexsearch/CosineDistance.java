@@ -0,0 +1,54 @@
+package com.github.algox.indexsearch;
+
+/**
+ * 1 - cosine similarity. Vectors with zero norm are at distance 1 from everything.
+ */
+public class CosineDistance implements Distance {
+    @Override
+    public double distance(double[] v1, double[] v2) {
+        double dot = 0;
+        double n1 = 0;
+        double n2 = 0;
+        for (int i = 0; i < v1.length; i ++) {
+            dot += v1[i] * v2[i];
+            n1 += v1[i] * v1[i];
+            n2 += v2[i] * v2[i];
+        }
+        if (n1 == 0 || n2 == 0) return 1;
+        return 1 - dot / Math.sqrt(n1 * n2);
+    }
+
+    @Override
+    public float distance(float[] v1, int offset1, float[] v2, int offset2, int dim) {
+        float d0 = 0;
+        float d1 = 0;
+        float a0 = 0;
+        float a1 = 0;
+        float b0 = 0;
+        float b1 = 0;
+        int i = 0;
+        for (int end = dim & ~1; i < end; i += 2) {
+            float x0 = v1[offset1 + i];
+            float x1 = v1[offset1 + i + 1];
+            float y0 = v2[offset2 + i];
+            float y1 = v2[offset2 + i + 1];
+            d0 += x0 * y0;
+            d1 += x1 * y1;
+            a0 += x0 * x0;
+            a1 += x1 * x1;
+            b0 += y0 * y0;
+            b1 += y1 * y1;
+        }
+        if (i < dim) {
+            float x = v1[offset1 + i];
+            float y = v2[offset2 + i];
+            d0 += x * y;
+            a0 += x * x;
+            b0 += y * y;
+        }
+        float n1 = a0 + a1;
+        float n2 = b0 + b1;
+        if (n1 == 0 || n2 == 0) return 1;
+        return 1 - (float) ((d0 + d1) / Math.sqrt((double) n1 * n2));
+    }
+}
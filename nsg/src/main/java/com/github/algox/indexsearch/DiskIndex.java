@@ -0,0 +1,402 @@
+package com.github.algox.indexsearch;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NSG index searched straight from disk, for data sets whose vectors do not fit in memory.
+ * Every node is one record holding its vector next to its neighbor ids, and records never
+ * straddle a page, so expanding a node costs a single page read.
+ * <pre>
+ * header page (4096 bytes, little endian)
+ *   int magic        "NSGD"
+ *   int version
+ *   int nd
+ *   int dim
+ *   int width
+ *   int ep
+ *   int deletedCount (version 2)
+ * node blocks
+ *   small records are packed 4096 / recordBytes to a page, larger ones are
+ *   padded to whole pages; a record is dim float32, int degree, width int ids
+ * deleted ids (version 2)
+ *   deletedCount int ids, still walked through but never returned
+ * </pre>
+ * With PQ codes in memory the graph is walked on PQ distances and only expanded nodes are
+ * read; their exact distances, which come with the same read, rank the result. Records of
+ * nodes close to ep are warmed into a NodeCache at open, which then keeps whatever is hot.
+ */
+public class DiskIndex {
+    public static final int MAGIC = 0x4447534E;
+    public static final int VERSION = 2;
+    public static final int PAGE_BYTES = 4096;
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    private final ByteBuffer[] chunks;
+    private final int blocksPerChunk;
+    private final int recordBytes;
+    private final int blockBytes;
+    private final int nodesPerBlock;
+    private final int nd;
+    private final int dim;
+    private final int width;
+    private final int ep;
+    private final BitSet deleted;
+    private final Distance distance;
+    private PqCodes pqCodes;
+    private NodeCache cache;
+    private final ThreadLocal<SearchContext> contexts = ThreadLocal.withInitial(SearchContext::new);
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    private DiskIndex(ByteBuffer[] chunks, int nd, int dim, int width, int ep, BitSet deleted, Distance distance) {
+        this.chunks = chunks;
+        this.nd = nd;
+        this.dim = dim;
+        this.width = width;
+        this.ep = ep;
+        this.deleted = deleted;
+        this.distance = distance;
+        this.recordBytes = recordBytes(dim, width);
+        this.blockBytes = blockBytes(recordBytes);
+        this.nodesPerBlock = nodesPerBlock(recordBytes);
+        this.blocksPerChunk = (int) Math.max(1, CHUNK_BYTES / blockBytes);
+    }
+
+    private static int recordBytes(int dim, int width) {
+        return 4 * dim + 4 + 4 * width;
+    }
+
+    private static int blockBytes(int recordBytes) {
+        return recordBytes <= PAGE_BYTES ? PAGE_BYTES : (recordBytes + PAGE_BYTES - 1) / PAGE_BYTES * PAGE_BYTES;
+    }
+
+    private static int nodesPerBlock(int recordBytes) {
+        return recordBytes <= PAGE_BYTES ? PAGE_BYTES / recordBytes : 1;
+    }
+
+    /**
+     * Write graph and data (any store, e.g. a MappedVectorStore) as one disk index file.
+     */
+    public static void write(GraphStore graph, VectorStore data, int ep, String path) throws IOException {
+        write(graph, data, ep, null, path);
+    }
+
+    /**
+     * Write graph and data as one disk index file.
+     * @param deleted ids that searches must not return, or null
+     */
+    public static void write(GraphStore graph, VectorStore data, int ep, BitSet deleted, String path)
+            throws IOException {
+        int nd = graph.size();
+        int dim = data.dim();
+        int width = graph.width();
+        if (data.size() != nd) {
+            throw new IllegalArgumentException("graph has " + nd + " nodes but there are " + data.size() + " vectors");
+        }
+        int recordBytes = recordBytes(dim, width);
+        int blockBytes = blockBytes(recordBytes);
+        int nodesPerBlock = nodesPerBlock(recordBytes);
+        Path tmp = GraphIO.tempFile(path);
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(tmp.toFile(), "rw");
+                 FileChannel channel = file.getChannel()) {
+                ByteBuffer header = ByteBuffer.allocate(PAGE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                int deletedCount = deleted == null ? 0 : deleted.cardinality();
+                header.putInt(MAGIC).putInt(VERSION).putInt(nd).putInt(dim).putInt(width).putInt(ep).putInt(deletedCount);
+                header.clear();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                ByteBuffer block = ByteBuffer.allocate(blockBytes).order(ByteOrder.LITTLE_ENDIAN);
+                float[] vec = new float[dim];
+                for (int n = 0; n < nd; n += nodesPerBlock) {
+                    Arrays.fill(block.array(), (byte) 0);
+                    int count = Math.min(nodesPerBlock, nd - n);
+                    for (int i = 0; i < count; i ++) {
+                        block.position(i * recordBytes);
+                        data.get(n + i, vec);
+                        for (int j = 0; j < dim; j ++) {
+                            block.putFloat(vec[j]);
+                        }
+                        int d = graph.degree(n + i);
+                        block.putInt(d);
+                        for (int j = 0; j < d; j ++) {
+                            block.putInt(graph.get(n + i, j));
+                        }
+                    }
+                    block.clear();
+                    while (block.hasRemaining()) {
+                        channel.write(block);
+                    }
+                }
+                if (deletedCount > 0) {
+                    ByteBuffer ids = ByteBuffer.allocate(4 * deletedCount).order(ByteOrder.LITTLE_ENDIAN);
+                    for (int id = deleted.nextSetBit(0); id >= 0; id = deleted.nextSetBit(id + 1)) {
+                        ids.putInt(id);
+                    }
+                    ids.flip();
+                    while (ids.hasRemaining()) {
+                        channel.write(ids);
+                    }
+                }
+            }
+            GraphIO.replace(tmp, path);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Map a disk index read-only.
+     * @param pqCodes codes of every node to navigate on, or null to read a record per scored node
+     * @param cacheNodes number of node records to keep in memory
+     */
+    public static DiskIndex open(String path, Distance distance, PqCodes pqCodes, int cacheNodes) throws IOException {
+        DiskIndex index;
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("truncated disk index header: " + path);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("not a disk index file: " + path);
+            }
+            int version = header.getInt();
+            if (version > VERSION) {
+                throw new IOException("unsupported disk index version " + version + ": " + path);
+            }
+            int nd = header.getInt();
+            int dim = header.getInt();
+            int width = header.getInt();
+            int ep = header.getInt();
+            int deletedCount = version >= 2 ? header.getInt() : 0;
+            int recordBytes = recordBytes(dim, width);
+            int nodesPerBlock = nodesPerBlock(recordBytes);
+            long blockBytes = blockBytes(recordBytes);
+            long blocks = (nd + nodesPerBlock - 1) / nodesPerBlock;
+            long deletedOffset = PAGE_BYTES + blocks * blockBytes;
+            if (channel.size() < deletedOffset + 4L * deletedCount) {
+                throw new IOException("truncated disk index: " + path);
+            }
+            BitSet deleted = new BitSet(nd);
+            if (deletedCount > 0) {
+                ByteBuffer ids = ByteBuffer.allocate(4 * deletedCount).order(ByteOrder.LITTLE_ENDIAN);
+                while (ids.hasRemaining()) {
+                    if (channel.read(ids, deletedOffset + ids.position()) < 0) {
+                        throw new IOException("truncated disk index: " + path);
+                    }
+                }
+                ids.flip();
+                for (int i = 0; i < deletedCount; i ++) {
+                    deleted.set(ids.getInt());
+                }
+            }
+            long blocksPerChunk = Math.max(1, CHUNK_BYTES / blockBytes);
+            int chunkCount = (int) ((blocks + blocksPerChunk - 1) / blocksPerChunk);
+            ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i ++) {
+                long n = Math.min(blocksPerChunk, blocks - i * blocksPerChunk);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, PAGE_BYTES + i * blocksPerChunk * blockBytes,
+                        n * blockBytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            index = new DiskIndex(chunks, nd, dim, width, ep, deleted, distance);
+        }
+        index.setPqCodes(pqCodes);
+        index.setCacheSize(cacheNodes);
+        return index;
+    }
+
+    public void setPqCodes(PqCodes pqCodes) {
+        if (pqCodes != null && pqCodes.size() != nd) {
+            throw new IllegalArgumentException("PQ codes cover " + pqCodes.size() + " vectors but the index has " + nd);
+        }
+        this.pqCodes = pqCodes;
+    }
+
+    /**
+     * Replace the node cache and warm it breadth-first from ep, the nodes every search passes.
+     * An empty index has nothing to cache.
+     */
+    public void setCacheSize(int cacheNodes) {
+        if (cacheNodes <= 0 || nd == 0) {
+            cache = null;
+            return;
+        }
+        NodeCache warm = new NodeCache(nd, cacheNodes, dim, width);
+        int count = Math.min(cacheNodes, nd);
+        int[] queue = new int[count];
+        float[] vec = new float[dim];
+        int[] nbrs = new int[width];
+        float[] childVec = new float[dim];
+        int[] childNbrs = new int[width];
+        int head = 0;
+        int tail = 0;
+        queue[tail ++] = ep;
+        warm.put(ep, vec, nbrs, readRecord(ep, vec, nbrs));
+        while (head < tail) {
+            int degree = readRecord(queue[head ++], vec, nbrs);
+            for (int i = 0; i < degree && tail < count; i ++) {
+                int id = nbrs[i];
+                if (warm.contains(id)) continue;
+                warm.put(id, childVec, childNbrs, readRecord(id, childVec, childNbrs));
+                queue[tail ++] = id;
+            }
+        }
+        cache = warm;
+    }
+
+    public int size() {
+        return nd;
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    public int getEp() {
+        return ep;
+    }
+
+    public boolean isDeleted(int id) {
+        return deleted.get(id);
+    }
+
+    /**
+     * Node records read from the file since open, cache hits excluded.
+     */
+    public long getReadCount() {
+        return reads.sum();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.sum();
+    }
+
+    private int readRecord(int id, float[] vec, int[] nbrs) {
+        int block = id / nodesPerBlock;
+        ByteBuffer buffer = chunks[block / blocksPerChunk];
+        int off = (block % blocksPerChunk) * blockBytes + (id % nodesPerBlock) * recordBytes;
+        for (int j = 0; j < dim; j ++) {
+            vec[j] = buffer.getFloat(off + 4 * j);
+        }
+        off += 4 * dim;
+        int degree = buffer.getInt(off);
+        off += 4;
+        for (int j = 0; j < degree; j ++) {
+            nbrs[j] = buffer.getInt(off + 4 * j);
+        }
+        return degree;
+    }
+
+    /**
+     * Fill vec and nbrs with the record of id, from the cache when possible.
+     * @return the degree of id
+     */
+    private int readNode(int id, float[] vec, int[] nbrs) {
+        NodeCache cache = this.cache;
+        if (cache != null) {
+            int degree = cache.get(id, vec, nbrs);
+            if (degree >= 0) {
+                cacheHits.increment();
+                return degree;
+            }
+        }
+        reads.increment();
+        int degree = readRecord(id, vec, nbrs);
+        if (cache != null) {
+            cache.put(id, vec, nbrs, degree);
+        }
+        return degree;
+    }
+
+    /**
+     * Search with a list of searchL candidates and return the k nearest by exact distance.
+     */
+    public SearchResult search(float[] query, int k, int searchL) {
+        if (nd == 0 || k <= 0) {
+            return new SearchResult(new int[0], new float[0]);
+        }
+        SearchContext ctx = contexts.get();
+        PqCodes pq = pqCodes;
+        int pl = Math.min(Math.max(k, searchL), nd);
+        if (pq != null) {
+            ctx.lut = pq.getQuantizer().lookupTable(query, ctx.lut);
+        }
+        ctx.reset(nd, width, pl);
+        ctx.ensureBuffers(Math.max(width, dim));
+        CandidatePool retset = ctx.pool;
+        int[] nbrs = ctx.neighbors;
+        float[] vec = ctx.row(dim);
+        ctx.visit(ep);
+        retset.insert(ep, score(ctx, pq, query, ep));
+        ctx.distanceCount ++;
+        if (pq != null) {
+            // random seeds cost nothing on PQ codes, without them each would be a read
+            int degree = readNode(ep, vec, nbrs);
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            for (int i = 0; retset.size() < pl && i < 4 * pl; i ++) {
+                int id = i < degree ? nbrs[i] : rnd.nextInt(nd);
+                if (!ctx.visit(id)) continue;
+                retset.insert(id, score(ctx, pq, query, id));
+                ctx.distanceCount ++;
+            }
+        }
+        int k0 = 0;
+        while (k0 < retset.size()) {
+            int nk = retset.size();
+            if (retset.isUnexpanded(k0)) {
+                retset.markExpanded(k0);
+                int n = retset.id(k0);
+                int degree = readNode(n, vec, nbrs);
+                if (!deleted.get(n)) {
+                    // deleted nodes are still walked through, never returned
+                    ctx.collect(n, pq == null ? retset.distance(k0) : distance.distance(vec, 0, query, 0, dim));
+                }
+                for (int m = 0; m < degree; m ++) {
+                    int id = nbrs[m];
+                    if (!ctx.visit(id)) continue;
+                    ctx.distanceCount ++;
+                    float dist = score(ctx, pq, query, id);
+                    if (dist >= retset.worst()) continue;
+                    int r = retset.insert(id, dist);
+                    if (r < nk) nk = r;
+                }
+            }
+            if (nk <= k0) {
+                k0 = nk;
+            } else {
+                ++ k0;
+            }
+        }
+        // only expanded nodes have exact distances, they are the result
+        Utils.sort(ctx.visitedIds, ctx.visitedDists, ctx.visitedCount);
+        int size = Math.min(k, ctx.visitedCount);
+        return new SearchResult(Arrays.copyOf(ctx.visitedIds, size), Arrays.copyOf(ctx.visitedDists, size));
+    }
+
+    /**
+     * PQ distance, or without codes the exact distance read from the node's record.
+     */
+    private float score(SearchContext ctx, PqCodes pq, float[] query, int id) {
+        if (pq != null) {
+            return pq.getQuantizer().distance(pq.getCodes(), id, ctx.lut);
+        }
+        float[] vec = ctx.tmpDists;
+        readNode(id, vec, ctx.tmpIds);
+        return distance.distance(vec, 0, query, 0, dim);
+    }
+}
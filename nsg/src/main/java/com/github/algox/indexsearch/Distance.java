@@ -2,4 +2,28 @@ package com.github.algox.indexsearch;
 
 public interface Distance {
     double distance(double[] v1, double[] v2);
+
+    float distance(float[] v1, int offset1, float[] v2, int offset2, int dim);
+
+    /**
+     * Distance that may stop early once the result is known to be at least upperBound.
+     * The value returned is exact when it is below upperBound, and otherwise only
+     * guaranteed to be >= upperBound. Metrics that cannot bound a partial sum
+     * compute the full distance.
+     */
+    default float distance(float[] v1, int offset1, float[] v2, int offset2, int dim, float upperBound) {
+        return distance(v1, offset1, v2, offset2, dim);
+    }
+
+    default float distance(VectorStore store, int id, float[] query) {
+        return store.distance(this, id, query);
+    }
+
+    default float distance(VectorStore store, int id, float[] query, float upperBound) {
+        return store.distance(this, id, query, upperBound);
+    }
+
+    default float distance(VectorStore store, int a, int b) {
+        return store.distance(this, a, b);
+    }
 }
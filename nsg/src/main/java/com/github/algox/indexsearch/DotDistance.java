@@ -9,4 +9,30 @@ public class DotDistance  implements Distance {
         }
         return 1 - v;
     }
+
+    @Override
+    public float distance(float[] v1, int offset1, float[] v2, int offset2, int dim) {
+        return 1 - dot(v1, offset1, v2, offset2, dim);
+    }
+
+    /**
+     * Inner product over float32, unrolled by four with independent accumulators.
+     */
+    public static float dot(float[] v1, int offset1, float[] v2, int offset2, int dim) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (int end = dim & ~3; i < end; i += 4) {
+            s0 += v1[offset1 + i] * v2[offset2 + i];
+            s1 += v1[offset1 + i + 1] * v2[offset2 + i + 1];
+            s2 += v1[offset1 + i + 2] * v2[offset2 + i + 2];
+            s3 += v1[offset1 + i + 3] * v2[offset2 + i + 3];
+        }
+        for (; i < dim; i ++) {
+            s0 += v1[offset1 + i] * v2[offset2 + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
 }
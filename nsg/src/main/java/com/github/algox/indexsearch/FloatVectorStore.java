@@ -0,0 +1,110 @@
+package com.github.algox.indexsearch;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Row-major float32 vectors in one contiguous array, which add() grows.
+ */
+public class FloatVectorStore implements VectorStore {
+    private float[] data;
+    private final int dim;
+    private int size;
+
+    public FloatVectorStore(int size, int dim) {
+        long cap = (long) size * dim;
+        if (cap > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many vectors: size = " + size + ", dim = " + dim);
+        }
+        this.data = new float[(int) cap];
+        this.dim = dim;
+        this.size = size;
+    }
+
+    public FloatVectorStore(float[] data, int dim) {
+        this.data = data;
+        this.dim = dim;
+        this.size = data.length / dim;
+    }
+
+    public static FloatVectorStore fromDoubles(List<double[]> vectors) {
+        int dim = vectors.isEmpty() ? 0 : vectors.get(0).length;
+        FloatVectorStore store = new FloatVectorStore(vectors.size(), dim);
+        for (int i = 0; i < vectors.size(); i ++) {
+            store.set(i, vectors.get(i));
+        }
+        return store;
+    }
+
+    public void set(int id, double[] v) {
+        int off = id * dim;
+        for (int j = 0; j < dim; j ++) {
+            data[off + j] = (float) v[j];
+        }
+    }
+
+    public void set(int id, float[] v) {
+        System.arraycopy(v, 0, data, id * dim, dim);
+    }
+
+    /**
+     * Append a vector.
+     * @return its id
+     */
+    public int add(float[] v) {
+        if ((long) (size + 1) * dim > data.length) {
+            long cap = ((long) size + (size >> 1) + 16) * dim;
+            if (cap > Integer.MAX_VALUE - 8) {
+                cap = (long) (size + 1) * dim;
+                if (cap > Integer.MAX_VALUE - 8) {
+                    throw new IllegalArgumentException("too many vectors: size = " + (size + 1) + ", dim = " + dim);
+                }
+            }
+            data = Arrays.copyOf(data, (int) cap);
+        }
+        System.arraycopy(v, 0, data, size * dim, dim);
+        return size ++;
+    }
+
+    /**
+     * The backing array; it may be longer than size() * dim().
+     */
+    public float[] data() {
+        return data;
+    }
+
+    public int offset(int id) {
+        return id * dim;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dim() {
+        return dim;
+    }
+
+    @Override
+    public float[] get(int id, float[] dst) {
+        System.arraycopy(data, id * dim, dst, 0, dim);
+        return dst;
+    }
+
+    @Override
+    public float distance(Distance distance, int id, float[] query) {
+        return distance.distance(data, id * dim, query, 0, dim);
+    }
+
+    @Override
+    public float distance(Distance distance, int id, float[] query, float upperBound) {
+        return distance.distance(data, id * dim, query, 0, dim, upperBound);
+    }
+
+    @Override
+    public float distance(Distance distance, int a, int b) {
+        return distance.distance(data, a * dim, data, b * dim, dim);
+    }
+}
@@ -0,0 +1,177 @@
+package com.github.algox.indexsearch;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Vectors stored as IEEE 754 half precision, half the size of a FloatVectorStore and,
+ * unlike Int8VectorStore, without training or clamping. Elements are widened through
+ * a 64K-entry table on the fly, so the kernels read two bytes per dimension.
+ */
+public class Fp16VectorStore implements VectorStore {
+    private static final float[] TABLE = new float[1 << 16];
+
+    static {
+        for (int i = 0; i < TABLE.length; i ++) {
+            TABLE[i] = toFloat((short) i);
+        }
+    }
+
+    private final short[] data;
+    private final int dim;
+    private final int size;
+    private final ThreadLocal<float[][]> scratch;
+
+    public Fp16VectorStore(short[] data, int dim) {
+        this.data = data;
+        this.dim = dim;
+        this.size = data.length / dim;
+        this.scratch = ThreadLocal.withInitial(() -> new float[2][dim]);
+    }
+
+    public static Fp16VectorStore encode(VectorStore data, ForkJoinPool pool) {
+        int dim = data.dim();
+        long cap = (long) data.size() * dim;
+        if (cap > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many vectors: size = " + data.size() + ", dim = " + dim);
+        }
+        short[] halfs = new short[(int) cap];
+        ThreadLocal<float[]> rows = ThreadLocal.withInitial(() -> new float[dim]);
+        Utils.parallelFor(pool, data.size(), i -> {
+            float[] row = data.get(i, rows.get());
+            int off = i * dim;
+            for (int j = 0; j < dim; j ++) {
+                halfs[off + j] = toHalf(row[j]);
+            }
+        });
+        return new Fp16VectorStore(halfs, dim);
+    }
+
+    /**
+     * Round to the nearest half, ties to even. Overflow becomes infinity, tiny values
+     * become subnormal halfs or zero.
+     */
+    public static short toHalf(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = (bits >>> 23) & 0xff;
+        int mant = bits & 0x7fffff;
+        if (exp == 0xff) {
+            return (short) (sign | 0x7c00 | (mant != 0 ? 0x200 : 0));
+        }
+        int e = exp - 127 + 15;
+        if (e >= 0x1f) {
+            return (short) (sign | 0x7c00);
+        }
+        if (e <= 0) {
+            if (e < -10) return (short) sign;
+            mant |= 0x800000;
+            int shift = 14 - e;
+            int h = mant >> shift;
+            int rem = mant & ((1 << shift) - 1);
+            int half = 1 << (shift - 1);
+            if (rem > half || (rem == half && (h & 1) != 0)) h ++;
+            return (short) (sign | h);
+        }
+        int h = (e << 10) | (mant >> 13);
+        int rem = mant & 0x1fff;
+        // a carry out of the mantissa correctly bumps the exponent
+        if (rem > 0x1000 || (rem == 0x1000 && (h & 1) != 0)) h ++;
+        return (short) (sign | h);
+    }
+
+    public static float toFloat(short h) {
+        int sign = (h & 0x8000) << 16;
+        int exp = (h >>> 10) & 0x1f;
+        int mant = h & 0x3ff;
+        if (exp == 0) {
+            float v = mant * 5.9604645E-8f;
+            return sign != 0 ? -v : v;
+        }
+        if (exp == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mant << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+    }
+
+    public short[] data() {
+        return data;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dim() {
+        return dim;
+    }
+
+    @Override
+    public float[] get(int id, float[] dst) {
+        int off = id * dim;
+        for (int j = 0; j < dim; j ++) {
+            dst[j] = TABLE[data[off + j] & 0xffff];
+        }
+        return dst;
+    }
+
+    @Override
+    public float distance(Distance distance, int id, float[] query) {
+        return distance(distance, id, query, Float.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public float distance(Distance distance, int id, float[] query, float upperBound) {
+        if (distance instanceof CommonDistance) {
+            return l2(id, query, upperBound);
+        }
+        if (distance instanceof DotDistance) {
+            int off = id * dim;
+            float s0 = 0;
+            float s1 = 0;
+            int i = 0;
+            for (int end = dim & ~1; i < end; i += 2) {
+                s0 += query[i] * TABLE[data[off + i] & 0xffff];
+                s1 += query[i + 1] * TABLE[data[off + i + 1] & 0xffff];
+            }
+            for (; i < dim; i ++) {
+                s0 += query[i] * TABLE[data[off + i] & 0xffff];
+            }
+            return 1 - (s0 + s1);
+        }
+        float[] row = get(id, scratch.get()[0]);
+        return distance.distance(row, 0, query, 0, dim, upperBound);
+    }
+
+    @Override
+    public float distance(Distance distance, int a, int b) {
+        float[][] rows = scratch.get();
+        get(a, rows[0]);
+        get(b, rows[1]);
+        return distance.distance(rows[0], 0, rows[1], 0, dim);
+    }
+
+    private float l2(int id, float[] query, float upperBound) {
+        int off = id * dim;
+        float sum = 0;
+        int i = 0;
+        for (int end = dim & ~15; i < end; i += 16) {
+            float s0 = 0;
+            float s1 = 0;
+            for (int j = i; j < i + 16; j += 2) {
+                float d0 = query[j] - TABLE[data[off + j] & 0xffff];
+                float d1 = query[j + 1] - TABLE[data[off + j + 1] & 0xffff];
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+            }
+            sum += s0 + s1;
+            if (sum >= upperBound) return sum;
+        }
+        for (; i < dim; i ++) {
+            float d = query[i] - TABLE[data[off + i] & 0xffff];
+            sum += d * d;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,247 @@
+package com.github.algox.indexsearch;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary format for NSG and kNN graphs.
+ * <pre>
+ * header (32 bytes, little endian)
+ *   int  magic       "NSG1"
+ *   int  version
+ *   int  nd
+ *   int  width
+ *   int  ep          navigating node, -1 for a plain kNN graph
+ *   int  reserved
+ *   long checksum    CRC32 of the edge section and the sections after it
+ * edge section
+ *   nd rows of (width + 1) ints: degree followed by width ids, unused slots zero
+ * optional sections (version 2), up to the end of the file
+ *   int tag, int count, count ints; readers skip tags they do not know
+ *   TAG_DELETED: ids of deleted nodes
+ *   TAG_ENTRY_POINTS: extra entry nodes of the search
+ * </pre>
+ */
+public class GraphIO {
+    public static final int MAGIC = 0x3147534E;
+    public static final int VERSION = 2;
+    public static final int HEADER_BYTES = 32;
+    public static final int TAG_DELETED = 1;
+    public static final int TAG_ENTRY_POINTS = 2;
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    public static class GraphFile {
+        public final int version;
+        public final int ep;
+        public final GraphStore graph;
+        public final int[] deleted;
+        public final int[] entryPoints;
+
+        GraphFile(int version, int ep, GraphStore graph, int[] deleted, int[] entryPoints) {
+            this.version = version;
+            this.ep = ep;
+            this.graph = graph;
+            this.deleted = deleted;
+            this.entryPoints = entryPoints;
+        }
+    }
+
+    public static boolean isBinary(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            if (file.length() < HEADER_BYTES) return false;
+            return Integer.reverseBytes(file.readInt()) == MAGIC;
+        }
+    }
+
+    public static void write(GraphStore graph, int ep, String path) throws IOException {
+        write(graph, ep, new int[0], new int[0], path);
+    }
+
+    /**
+     * @param deleted ids of deleted nodes, see NsgIndex#delete
+     * @param entryPoints entry nodes besides ep, see NsgIndex#buildEntryPoints
+     */
+    public static void write(GraphStore graph, int ep, int[] deleted, int[] entryPoints, String path) throws IOException {
+        int nd = graph.size();
+        int width = graph.width();
+        int stride = width + 1;
+        CRC32 crc = new CRC32();
+        Path tmp = tempFile(path);
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(tmp.toFile(), "rw");
+                 FileChannel channel = file.getChannel()) {
+                channel.position(HEADER_BYTES);
+                int rowsPerBuffer = Math.max(1, (1 << 20) / (stride * 4));
+                ByteBuffer buffer = ByteBuffer.allocate(rowsPerBuffer * stride * 4).order(ByteOrder.LITTLE_ENDIAN);
+                IntBuffer ints = buffer.asIntBuffer();
+                int[] row = new int[stride];
+                for (int n = 0; n < nd; n += rowsPerBuffer) {
+                    int rows = Math.min(rowsPerBuffer, nd - n);
+                    ints.clear();
+                    for (int i = 0; i < rows; i ++) {
+                        int d = graph.degree(n + i);
+                        row[0] = d;
+                        for (int j = 0; j < d; j ++) {
+                            row[j + 1] = graph.get(n + i, j);
+                        }
+                        for (int j = d + 1; j < stride; j ++) {
+                            row[j] = 0;
+                        }
+                        ints.put(row);
+                    }
+                    buffer.clear();
+                    buffer.limit(rows * stride * 4);
+                    crc.update(buffer.array(), 0, buffer.limit());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                if (deleted.length > 0) {
+                    writeSection(channel, crc, TAG_DELETED, deleted);
+                }
+                if (entryPoints.length > 0) {
+                    writeSection(channel, crc, TAG_ENTRY_POINTS, entryPoints);
+                }
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(nd).putInt(width).putInt(ep).putInt(0).putLong(crc.getValue());
+                header.flip();
+                channel.position(0);
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+            }
+            replace(tmp, path);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * A new file in the directory of path. Writers fill it and then replace path with it, so a
+     * reader that still has the old file mapped keeps its pages instead of faulting on a truncated file.
+     */
+    static Path tempFile(String path) throws IOException {
+        Path target = Paths.get(path).toAbsolutePath();
+        return Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    }
+
+    static void replace(Path tmp, String path) throws IOException {
+        Files.move(tmp, Paths.get(path), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeSection(FileChannel channel, CRC32 crc, int tag, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 4 * values.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(tag).putInt(values.length);
+        buffer.asIntBuffer().put(values);
+        crc.update(buffer.array(), 0, buffer.capacity());
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Map a binary graph file read-only. Pages are loaded lazily and shared with
+     * every other process mapping the same file.
+     * @param verify recompute the checksum of the edge section (reads the whole file)
+     */
+    public static GraphFile map(String path, boolean verify) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException("truncated graph header: " + path);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("not a binary graph file: " + path);
+            }
+            int version = header.getInt();
+            if (version > VERSION) {
+                throw new IOException("unsupported graph file version " + version + ": " + path);
+            }
+            int nd = header.getInt();
+            int width = header.getInt();
+            int ep = header.getInt();
+            header.getInt();
+            long checksum = header.getLong();
+            int stride = width + 1;
+            long rowBytes = stride * 4L;
+            if (channel.size() < HEADER_BYTES + nd * rowBytes) {
+                throw new IOException("truncated graph file: " + path);
+            }
+            int rowsPerChunk = (int) Math.max(1, Math.min(nd, CHUNK_BYTES / rowBytes));
+            int chunkCount = nd == 0 ? 0 : (nd + rowsPerChunk - 1) / rowsPerChunk;
+            IntBuffer[] chunks = new IntBuffer[chunkCount];
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < chunkCount; i ++) {
+                long rows = Math.min(rowsPerChunk, nd - (long) i * rowsPerChunk);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + (long) i * rowsPerChunk * rowBytes, rows * rowBytes);
+                if (verify) {
+                    crc.update(mapped.duplicate());
+                }
+                chunks[i] = mapped.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            }
+            int[] deleted = new int[0];
+            int[] entryPoints = new int[0];
+            long pos = HEADER_BYTES + nd * rowBytes;
+            if (channel.size() - pos > Integer.MAX_VALUE - 8) {
+                throw new IOException("graph file sections too large: " + path);
+            }
+            ByteBuffer sections = ByteBuffer.allocate((int) (channel.size() - pos)).order(ByteOrder.LITTLE_ENDIAN);
+            while (sections.hasRemaining()) {
+                if (channel.read(sections, pos + sections.position()) < 0) break;
+            }
+            if (verify) {
+                crc.update(sections.array(), 0, sections.capacity());
+            }
+            if (verify && crc.getValue() != checksum) {
+                throw new IOException("graph file checksum mismatch: " + path);
+            }
+            sections.flip();
+            while (sections.remaining() >= 8) {
+                int tag = sections.getInt();
+                int count = sections.getInt();
+                if (count < 0 || count > sections.remaining() / 4) {
+                    throw new IOException("truncated section " + tag + " in graph file: " + path);
+                }
+                int[] values = new int[count];
+                sections.asIntBuffer().get(values);
+                sections.position(sections.position() + 4 * count);
+                if (tag == TAG_DELETED) {
+                    deleted = values;
+                } else if (tag == TAG_ENTRY_POINTS) {
+                    entryPoints = values;
+                }
+            }
+            return new GraphFile(version, ep, new MappedGraphStore(nd, width, chunks, rowsPerChunk), deleted, entryPoints);
+        }
+    }
+
+    /**
+     * Read a binary graph file into a mutable heap GraphStore.
+     */
+    public static GraphFile read(String path, boolean verify) throws IOException {
+        GraphFile mapped = map(path, verify);
+        GraphStore src = mapped.graph;
+        GraphStore graph = new GraphStore(src.size(), src.width());
+        int[] row = new int[src.width()];
+        for (int n = 0; n < src.size(); n ++) {
+            graph.setNeighbors(n, row, src.copyNeighbors(n, row));
+        }
+        return new GraphFile(mapped.version, mapped.ep, graph, mapped.deleted, mapped.entryPoints);
+    }
+}
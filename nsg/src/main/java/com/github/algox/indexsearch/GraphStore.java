@@ -0,0 +1,154 @@
+package com.github.algox.indexsearch;
+
+import java.util.Arrays;
+
+/**
+ * Adjacency lists stored as one fixed-stride int array: the neighbors of
+ * node n live in edges[n * width, n * width + degree(n)).
+ * The stride grows on demand when a node exceeds the current width.
+ */
+public class GraphStore {
+    private int[] edges;
+    private int[] degrees;
+    protected int width;
+    protected int nd;
+
+    public GraphStore(int nd, int width) {
+        this.nd = nd;
+        this.width = Math.max(width, 1);
+        this.edges = new int[capacity(nd, this.width)];
+        this.degrees = new int[nd];
+    }
+
+    /**
+     * For subclasses that keep the adjacency somewhere else.
+     */
+    protected GraphStore(int nd, int width, boolean allocate) {
+        this.nd = nd;
+        this.width = width;
+        if (allocate) {
+            this.edges = new int[capacity(nd, width)];
+            this.degrees = new int[nd];
+        }
+    }
+
+    private static int capacity(int nd, int width) {
+        long cap = (long) nd * width;
+        if (cap > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("graph too large: nd = " + nd + ", width = " + width);
+        }
+        return (int) cap;
+    }
+
+    public int size() {
+        return nd;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int degree(int n) {
+        return degrees[n];
+    }
+
+    public int get(int n, int i) {
+        return edges[n * width + i];
+    }
+
+    public void set(int n, int i, int id) {
+        edges[n * width + i] = id;
+    }
+
+    /**
+     * Copy the neighbors of n into dst, which must hold at least width() ints.
+     * @return the degree of n
+     */
+    public int copyNeighbors(int n, int[] dst) {
+        int d = degrees[n];
+        System.arraycopy(edges, n * width, dst, 0, d);
+        return d;
+    }
+
+    public void setNeighbors(int n, int[] ids, int count) {
+        if (count > width) {
+            resize(count);
+        }
+        System.arraycopy(ids, 0, edges, n * width, count);
+        degrees[n] = count;
+    }
+
+    public void setDegree(int n, int d) {
+        if (d > width) {
+            resize(d);
+        }
+        degrees[n] = d;
+    }
+
+    public void add(int n, int id) {
+        int d = degrees[n];
+        if (d == width) {
+            resize(width + (width >> 1) + 1);
+        }
+        edges[n * width + d] = id;
+        degrees[n] = d + 1;
+    }
+
+    public boolean contains(int n, int id) {
+        int off = n * width;
+        int end = off + degrees[n];
+        for (int i = off; i < end; i ++) {
+            if (edges[i] == id) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Append a node without neighbors, growing the storage geometrically.
+     * @return the id of the new node
+     */
+    public int addNode() {
+        if (nd == degrees.length || (long) (nd + 1) * width > edges.length) {
+            int cap = nd + (nd >> 1) + 16;
+            edges = Arrays.copyOf(edges, capacity(cap, width));
+            degrees = Arrays.copyOf(degrees, cap);
+        }
+        degrees[nd] = 0;
+        return nd ++;
+    }
+
+    /**
+     * Make room for at least newWidth neighbors per node.
+     */
+    public void ensureWidth(int newWidth) {
+        if (newWidth > width) {
+            resize(newWidth);
+        }
+    }
+
+    /**
+     * Shrink the stride to the largest degree actually used.
+     */
+    public void trim() {
+        int max = 1;
+        for (int i = 0; i < nd; i ++) {
+            max = Math.max(max, degrees[i]);
+        }
+        if (max != width) {
+            resize(max);
+        }
+    }
+
+    private void resize(int newWidth) {
+        int[] tmp = new int[capacity(nd, newWidth)];
+        for (int i = 0; i < nd; i ++) {
+            System.arraycopy(edges, i * width, tmp, i * newWidth, degrees[i]);
+        }
+        edges = tmp;
+        width = newWidth;
+    }
+
+    public int[] neighbors(int n) {
+        return Arrays.copyOfRange(edges, n * width, n * width + degrees[n]);
+    }
+}
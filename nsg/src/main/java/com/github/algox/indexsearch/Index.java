@@ -1,15 +1,10 @@
 package com.github.algox.indexsearch;
 
 import com.alibaba.fastjson.JSON;
-import com.github.algox.utils.BytesUtils;
-import com.google.common.primitives.Bytes;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -17,31 +12,7 @@ import java.util.stream.Collectors;
 public class Index {
     public static void main(String[] args) throws IOException {
         List<double[]> data = new ArrayList<>();
-//        int num = 0;
-//        int dim = 0;
-//        try(FileChannel fc = new RandomAccessFile("/Users/songyaheng/Downloads/siftsmall/siftsmall_base.fvecs", "rw").getChannel()) {
-//            ByteBuffer fb = fc.map(FileChannel.MapMode.READ_WRITE, 0, fc.size())
-//                    .order(ByteOrder.nativeOrder()).asReadOnlyBuffer();
-//            byte[] b = new byte[4];
-//            fb.get(b);
-//            Bytes.reverse(b);
-//            dim = BytesUtils.byteArrToInt(b);
-//            System.out.println("data dimension: " + dim);
-//            int fsize = fb.limit();
-//            num = (fsize / (dim+1) / 4);
-//            for (int i = 0; i < num; i++) {
-//                double[] vec = new double[dim];
-//                for (int j = 0; j < dim; j ++) {
-//                    fb.get(b);
-//                    Bytes.reverse(b);
-//                    vec[j] = BytesUtils.byteArrToFloat(b);
-//                }
-//                data.add(vec);
-//                if (fb.hasRemaining()) {
-//                    fb.get(b);
-//                }
-//            }
-//        }
+//        VectorStore sift = VectorFiles.mapFvecs("/Users/songyaheng/Downloads/siftsmall/siftsmall_base.fvecs");
 
         Map<Integer, String> map = new HashMap<>();
         int dim = 200;
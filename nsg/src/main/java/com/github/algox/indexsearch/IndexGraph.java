@@ -1,19 +1,18 @@
 package com.github.algox.indexsearch;
 
-import org.apache.commons.lang3.StringUtils;
 import org.nd4j.linalg.api.rng.Random;
 import org.nd4j.linalg.cpu.nativecpu.rng.CpuNativeRandom;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class IndexGraph {
     private static final int CONTROL_NUM = 100;
-    List<double[]> data;
-    private static Nhood[] graph;
-    private static List<List<Integer>> finalGraph;
+    VectorStore data;
+    private Nhood[] graph;
+    private GraphStore finalGraph;
     private int nd;
     private int l;
     private int s;
@@ -21,6 +20,7 @@ public class IndexGraph {
     private int k;
     private int iter;
     private Distance distance;
+    private ForkJoinPool buildPool = ForkJoinPool.commonPool();
 
     public void setNd(int nd) {
         this.nd = nd;
@@ -50,8 +50,20 @@ public class IndexGraph {
         this.distance = distance;
     }
 
+    public void setBuildPool(ForkJoinPool buildPool) {
+        this.buildPool = buildPool;
+    }
+
     public void fromData(List<double[]> data) {
+        fromData(FloatVectorStore.fromDoubles(data));
+    }
+
+    /**
+     * Any store works, including Int8VectorStore whose row-to-row distances run on integer codes.
+     */
+    public void fromData(VectorStore data) {
         this.data = data;
+        this.nd = data.size();
     }
 
     private void initGraph() {
@@ -68,37 +80,35 @@ public class IndexGraph {
                 if (id == i) {
                     continue;
                 }
-                double dist = distance.distance(data.get(i), data.get(id));
-                graph[i].pool.add(new Neighbor(id, dist, true));
+                graph[i].add(id, distance.distance(data, i, id), true);
             }
             graph[i].makeHeap();
         }
     }
 
     public void join() {
-        for (int i = 0; i < nd; i ++) {
-            graph[i].join(new Callback() {
-                @Override
-                public void call(int i, int j) {
-                    if (i != j) {
-                        double dist = distance.distance(data.get(i), data.get(j));
-                        graph[i].insert(j, dist);
-                        graph[j].insert(i, dist);
-                    }
+        Callback callback = new Callback() {
+            @Override
+            public void call(int i, int j) {
+                if (i != j) {
+                    float dist = distance.distance(data, i, j);
+                    graph[i].insert(j, dist);
+                    graph[j].insert(i, dist);
                 }
-            });
-        }
+            }
+        };
+        Utils.parallelFor(buildPool, nd, i -> graph[i].join(callback));
     }
 
     public void evalRecall(List<Integer> controlPoints, int[][] accEvalSet) {
         double meanAcc = 0;
         for (int i = 0; i < controlPoints.size(); i ++) {
             double acc = 0;
-            List<Neighbor> g = graph[controlPoints.get(i)].pool;
+            Nhood g = graph[controlPoints.get(i)];
             int[] v = accEvalSet[i];
-            for (Neighbor neighbor: g) {
+            for (int j = 0; j < g.size; j ++) {
                 for (int k : v) {
-                    if (neighbor.id == k) {
+                    if (g.ids[j] == k) {
                         acc ++;
                         break;
                     }
@@ -123,55 +133,57 @@ public class IndexGraph {
     }
 
     public void update() {
-        Random rnd = new CpuNativeRandom();
-        for (int i = 0; i < nd; i ++) {
+        Utils.parallelFor(buildPool, nd, i -> {
             graph[i].nnNew.clear();
             graph[i].nnOld.clear();
-        }
-        for (int i = 0; i < nd; ++ i) {
             graph[i].sortPool();
-            int maxl = Math.min(graph[i].m + s, graph[i].pool.size());
+            int maxl = Math.min(graph[i].m + s, graph[i].size);
             int c = 0;
             int ll = 0;
             while ((ll < maxl) && (c < s)) {
-                if (graph[i].pool.get(ll).flag) {
+                if (graph[i].flags[ll]) {
                     ++c;
                 }
                 ++ ll;
             }
             graph[i].m = ll;
-        }
-        for (int i = 0; i < nd; ++i) {
+        });
+        // pools stay sorted until every node has been sampled, so the last entry is the farthest one
+        Utils.parallelFor(buildPool, nd, i -> {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
             Nhood nnhd = graph[i];
             for (int j = 0; j < nnhd.m; ++ j) {
-                Neighbor nn = nnhd.pool.get(j);
-                Nhood nhood = graph[nn.id];
-                if (nn.flag) {
-                    graph[i].nnNew.add(nn.id);
-                    if (nn.distance > nhood.pool.get(nhood.pool.size() - 1).distance) {
-                        if (nhood.rnnNew.size() < r) {
-                            graph[nn.id].rnnNew.add(i);
-                        } else {
-                            int pos = rnd.nextInt(Integer.MAX_VALUE) % r;
-                            graph[nn.id].rnnNew.set(pos, i);
+                int id = nnhd.ids[j];
+                Nhood nhood = graph[id];
+                boolean reverse = nnhd.distances[j] > nhood.distances[nhood.size - 1];
+                if (nnhd.flags[j]) {
+                    nnhd.nnNew.add(id);
+                    if (reverse) {
+                        synchronized (nhood) {
+                            if (nhood.rnnNew.size() < r) {
+                                nhood.rnnNew.add(i);
+                            } else {
+                                nhood.rnnNew.set(rnd.nextInt(r), i);
+                            }
                         }
                     }
-                    graph[i].pool.get(j).flag = false;
+                    nnhd.flags[j] = false;
                 } else {
-                    graph[i].nnOld.add(nn.id);
-                    if (nn.distance > nhood.pool.get(nhood.pool.size() - 1).distance) {
-                        if (nhood.rnnOld.size() < r) {
-                            graph[nn.id].rnnOld.add(i);
-                        } else {
-                            int pos = rnd.nextInt(Integer.MAX_VALUE) % r;
-                            graph[nn.id].rnnOld.set(pos, i);
+                    nnhd.nnOld.add(id);
+                    if (reverse) {
+                        synchronized (nhood) {
+                            if (nhood.rnnOld.size() < r) {
+                                nhood.rnnOld.add(i);
+                            } else {
+                                nhood.rnnOld.set(rnd.nextInt(r), i);
+                            }
                         }
                     }
                 }
             }
+        });
+        Utils.parallelFor(buildPool, nd, i -> {
             graph[i].makeHeap();
-        }
-        for (int i = 0; i < nd; ++i) {
             if (r > 0 && graph[i].rnnNew.size() > r) {
                 graph[i].shuffleRnnNew();
             }
@@ -185,7 +197,7 @@ public class IndexGraph {
             }
             graph[i].rnnNew.clear();
             graph[i].rnnOld.clear();
-        }
+        });
     }
 
     public int[][] generateControlSet(List<Integer> controlPoints) {
@@ -193,7 +205,7 @@ public class IndexGraph {
         for (int i = 0; i < controlPoints.size(); i ++) {
             List<Neighbor> tmp = new ArrayList<>(nd);
             for (int j = 0; j < nd; j ++) {
-                double dist = distance.distance(data.get(controlPoints.get(i)), data.get(j));
+                double dist = distance.distance(data, controlPoints.get(i), j);
                 tmp.add(new Neighbor(j, dist, true));
             }
             Collections.sort(tmp);
@@ -207,15 +219,14 @@ public class IndexGraph {
     public void build(){
         initGraph();
         nnDescent();
-        finalGraph = new ArrayList<>(nd);
+        finalGraph = new GraphStore(nd, k);
         for (int i = 0; i < nd; i ++) {
-            List<Integer> tmp = new ArrayList<>(k);
             graph[i].sortPool();
             for (int j =0; j < k; j ++) {
-                tmp.add(graph[i].pool.get(j).id);
+                finalGraph.set(i, j, graph[i].ids[j]);
             }
-            finalGraph.add(tmp);
-            graph[i].pool.clear();
+            finalGraph.setDegree(i, k);
+            graph[i].clearPool();
             graph[i].nnNew.clear();
             graph[i].nnOld.clear();
             graph[i].rnnNew.clear();
@@ -224,14 +235,17 @@ public class IndexGraph {
         System.out.println("Build OK");
     }
 
+    public GraphStore getGraph() {
+        return finalGraph;
+    }
+
+    /**
+     * Write the kNN graph in the binary format of GraphIO.
+     */
     public void save(String path) {
         try {
-            PrintWriter writer = new PrintWriter(new File(path));
-            for (List<Integer> d : finalGraph) {
-                writer.write(StringUtils.join(d, " ") + "\n");
-            }
-            writer.close();
-        } catch (FileNotFoundException e) {
+            GraphIO.write(finalGraph, -1, path);
+        } catch (IOException e) {
             e.printStackTrace();
         }
 
@@ -0,0 +1,183 @@
+package com.github.algox.indexsearch;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Vectors scalar-quantized to one byte per dimension, a quarter of a FloatVectorStore.
+ * Distances between two stored rows (graph construction and pruning) run on the codes
+ * with int accumulators; distances to a float query decode on the fly so the query
+ * itself loses no precision. L2 and inner product have dedicated kernels, any other
+ * Distance goes through decoded rows.
+ */
+public class Int8VectorStore implements VectorStore {
+    private final ScalarQuantizer quantizer;
+    private final byte[] codes;
+    private final int dim;
+    private final int size;
+    private final float[] min;
+    private final float step;
+    /** step * sum(min[j] * code[j]) of every row, the cross term of the inner product */
+    private final float[] dotBias;
+    /** sum(min[j] * min[j]) */
+    private final float minNorm;
+    private final ThreadLocal<float[][]> scratch;
+
+    public Int8VectorStore(ScalarQuantizer quantizer, byte[] codes) {
+        this.quantizer = quantizer;
+        this.codes = codes;
+        this.dim = quantizer.dim();
+        this.size = codes.length / dim;
+        this.min = quantizer.getMin();
+        this.step = quantizer.getStep();
+        float norm = 0;
+        for (int j = 0; j < dim; j ++) {
+            norm += min[j] * min[j];
+        }
+        this.minNorm = norm;
+        this.dotBias = new float[size];
+        for (int i = 0; i < size; i ++) {
+            int off = i * dim;
+            float bias = 0;
+            for (int j = 0; j < dim; j ++) {
+                bias += min[j] * (codes[off + j] & 0xff);
+            }
+            dotBias[i] = step * bias;
+        }
+        this.scratch = ThreadLocal.withInitial(() -> new float[2][dim]);
+    }
+
+    /**
+     * Train a quantizer on data and encode all of it.
+     */
+    public static Int8VectorStore encode(VectorStore data, ForkJoinPool pool) {
+        ScalarQuantizer quantizer = ScalarQuantizer.train(data);
+        int dim = data.dim();
+        long cap = (long) data.size() * dim;
+        if (cap > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many vectors: size = " + data.size() + ", dim = " + dim);
+        }
+        byte[] codes = new byte[(int) cap];
+        ThreadLocal<float[]> rows = ThreadLocal.withInitial(() -> new float[dim]);
+        Utils.parallelFor(pool, data.size(), i -> quantizer.encode(data.get(i, rows.get()), codes, i * dim));
+        return new Int8VectorStore(quantizer, codes);
+    }
+
+    public ScalarQuantizer getQuantizer() {
+        return quantizer;
+    }
+
+    public byte[] getCodes() {
+        return codes;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dim() {
+        return dim;
+    }
+
+    @Override
+    public float[] get(int id, float[] dst) {
+        return quantizer.decode(codes, id * dim, dst);
+    }
+
+    @Override
+    public float distance(Distance distance, int id, float[] query) {
+        return distance(distance, id, query, Float.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public float distance(Distance distance, int id, float[] query, float upperBound) {
+        if (distance instanceof CommonDistance) {
+            return l2(id, query, upperBound);
+        }
+        if (distance instanceof DotDistance) {
+            return 1 - dot(id, query);
+        }
+        float[] row = get(id, scratch.get()[0]);
+        return distance.distance(row, 0, query, 0, dim, upperBound);
+    }
+
+    @Override
+    public float distance(Distance distance, int a, int b) {
+        if (distance instanceof CommonDistance) {
+            return step * step * ScalarQuantizer.l2(codes, a * dim, b * dim, dim);
+        }
+        if (distance instanceof DotDistance) {
+            return 1 - (minNorm + dotBias[a] + dotBias[b] + step * step * ScalarQuantizer.dot(codes, a * dim, b * dim, dim));
+        }
+        float[][] rows = scratch.get();
+        get(a, rows[0]);
+        get(b, rows[1]);
+        return distance.distance(rows[0], 0, rows[1], 0, dim);
+    }
+
+    /**
+     * Squared L2 from the query to the decoded row, giving up past upperBound
+     * after every block of 16 dimensions like CommonDistance.
+     */
+    private float l2(int id, float[] query, float upperBound) {
+        int off = id * dim;
+        float sum = 0;
+        int i = 0;
+        for (int end = dim & ~15; i < end; i += 16) {
+            float s0 = 0;
+            float s1 = 0;
+            for (int j = i; j < i + 16; j += 2) {
+                float d0 = query[j] - (min[j] + step * (codes[off + j] & 0xff));
+                float d1 = query[j + 1] - (min[j + 1] + step * (codes[off + j + 1] & 0xff));
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+            }
+            sum += s0 + s1;
+            if (sum >= upperBound) return sum;
+        }
+        for (; i < dim; i ++) {
+            float d = query[i] - (min[i] + step * (codes[off + i] & 0xff));
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private float dot(int id, float[] query) {
+        return queryBias(query) + step * codeDot(id, query);
+    }
+
+    /**
+     * sum(query[j] * min[j]), the part of the inner product with a decoded row that only
+     * depends on the query. Compute it once per query and pass it to dotDistance.
+     */
+    public float queryBias(float[] query) {
+        float bias = 0;
+        for (int i = 0; i < dim; i ++) {
+            bias += query[i] * min[i];
+        }
+        return bias;
+    }
+
+    /**
+     * Same as distance(DotDistance, id, query) given queryBias(query).
+     */
+    public float dotDistance(int id, float[] query, float queryBias) {
+        return 1 - (queryBias + step * codeDot(id, query));
+    }
+
+    private float codeDot(int id, float[] query) {
+        int off = id * dim;
+        float s0 = 0;
+        float s1 = 0;
+        int i = 0;
+        for (int end = dim & ~1; i < end; i += 2) {
+            s0 += query[i] * (codes[off + i] & 0xff);
+            s1 += query[i + 1] * (codes[off + i + 1] & 0xff);
+        }
+        for (; i < dim; i ++) {
+            s0 += query[i] * (codes[off + i] & 0xff);
+        }
+        return s0 + s1;
+    }
+}
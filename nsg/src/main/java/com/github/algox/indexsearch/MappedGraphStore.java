@@ -0,0 +1,95 @@
+package com.github.algox.indexsearch;
+
+import java.nio.IntBuffer;
+
+/**
+ * Read-only adjacency backed by memory-mapped rows of the binary graph file
+ * (see GraphIO). Each row is [degree, id_0 .. id_{width-1}]; rows are split
+ * over several mappings so files larger than 2 GB can be used.
+ */
+public class MappedGraphStore extends GraphStore {
+    private final IntBuffer[] chunks;
+    private final int rowsPerChunk;
+    private final int stride;
+
+    MappedGraphStore(int nd, int width, IntBuffer[] chunks, int rowsPerChunk) {
+        super(nd, width, false);
+        this.chunks = chunks;
+        this.rowsPerChunk = rowsPerChunk;
+        this.stride = width + 1;
+    }
+
+    @Override
+    public int degree(int n) {
+        return chunks[n / rowsPerChunk].get((n % rowsPerChunk) * stride);
+    }
+
+    @Override
+    public int get(int n, int i) {
+        return chunks[n / rowsPerChunk].get((n % rowsPerChunk) * stride + 1 + i);
+    }
+
+    @Override
+    public int copyNeighbors(int n, int[] dst) {
+        IntBuffer chunk = chunks[n / rowsPerChunk];
+        int off = (n % rowsPerChunk) * stride;
+        int d = chunk.get(off);
+        for (int i = 0; i < d; i ++) {
+            dst[i] = chunk.get(off + 1 + i);
+        }
+        return d;
+    }
+
+    @Override
+    public boolean contains(int n, int id) {
+        IntBuffer chunk = chunks[n / rowsPerChunk];
+        int off = (n % rowsPerChunk) * stride;
+        int d = chunk.get(off);
+        for (int i = 0; i < d; i ++) {
+            if (chunk.get(off + 1 + i) == id) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int[] neighbors(int n) {
+        int[] ids = new int[degree(n)];
+        copyNeighbors(n, ids);
+        return ids;
+    }
+
+    @Override
+    public void set(int n, int i, int id) {
+        throw new UnsupportedOperationException("mapped graph is read-only");
+    }
+
+    @Override
+    public void setNeighbors(int n, int[] ids, int count) {
+        throw new UnsupportedOperationException("mapped graph is read-only");
+    }
+
+    @Override
+    public void setDegree(int n, int d) {
+        throw new UnsupportedOperationException("mapped graph is read-only");
+    }
+
+    @Override
+    public void add(int n, int id) {
+        throw new UnsupportedOperationException("mapped graph is read-only");
+    }
+
+    @Override
+    public void trim() {
+        throw new UnsupportedOperationException("mapped graph is read-only");
+    }
+
+    @Override
+    public int addNode() {
+        throw new UnsupportedOperationException("mapped graph is read-only");
+    }
+
+    @Override
+    public void ensureWidth(int newWidth) {
+        throw new UnsupportedOperationException("mapped graph is read-only");
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.algox.indexsearch;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Read-only vectors read straight out of memory-mapped files (see VectorFiles).
+ * Rows are fixed-size records of an optional header followed by dim elements,
+ * either float32 or unsigned bytes, spread over several mappings so files
+ * larger than 2 GB can be used. Rows are decoded into a per-thread buffer on access.
+ */
+public class MappedVectorStore implements VectorStore {
+    private final ByteBuffer[] chunks;
+    private final FloatBuffer[] floatChunks;
+    private final int rowsPerChunk;
+    private final int rowBytes;
+    private final int headerBytes;
+    private final int size;
+    private final int dim;
+    private final boolean bytes;
+    private final ThreadLocal<float[][]> scratch;
+
+    MappedVectorStore(ByteBuffer[] chunks, int rowsPerChunk, int rowBytes, int headerBytes, int size, int dim, boolean bytes) {
+        this.chunks = chunks;
+        this.rowsPerChunk = rowsPerChunk;
+        this.rowBytes = rowBytes;
+        this.headerBytes = headerBytes;
+        this.size = size;
+        this.dim = dim;
+        this.bytes = bytes;
+        this.floatChunks = new FloatBuffer[chunks.length];
+        if (!bytes) {
+            for (int i = 0; i < chunks.length; i ++) {
+                floatChunks[i] = chunks[i].asFloatBuffer();
+            }
+        }
+        this.scratch = ThreadLocal.withInitial(() -> new float[2][dim]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dim() {
+        return dim;
+    }
+
+    @Override
+    public float[] get(int id, float[] dst) {
+        int chunk = id / rowsPerChunk;
+        int off = (id % rowsPerChunk) * rowBytes + headerBytes;
+        if (bytes) {
+            ByteBuffer buffer = chunks[chunk];
+            for (int j = 0; j < dim; j ++) {
+                dst[j] = buffer.get(off + j) & 0xff;
+            }
+        } else {
+            FloatBuffer buffer = floatChunks[chunk];
+            int index = off >> 2;
+            for (int j = 0; j < dim; j ++) {
+                dst[j] = buffer.get(index + j);
+            }
+        }
+        return dst;
+    }
+
+    @Override
+    public float distance(Distance distance, int id, float[] query) {
+        float[] row = get(id, scratch.get()[0]);
+        return distance.distance(row, 0, query, 0, dim);
+    }
+
+    @Override
+    public float distance(Distance distance, int id, float[] query, float upperBound) {
+        float[] row = get(id, scratch.get()[0]);
+        return distance.distance(row, 0, query, 0, dim, upperBound);
+    }
+
+    @Override
+    public float distance(Distance distance, int a, int b) {
+        float[][] rows = scratch.get();
+        get(a, rows[0]);
+        get(b, rows[1]);
+        return distance.distance(rows[0], 0, rows[1], 0, dim);
+    }
+}
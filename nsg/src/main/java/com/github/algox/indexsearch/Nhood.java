@@ -4,10 +4,21 @@ import org.nd4j.linalg.api.rng.Random;
 
 import java.util.*;
 
+/**
+ * Neighborhood of one node during NN-Descent. The pool is a bounded max-heap
+ * on distance kept in parallel primitive arrays, so the farthest neighbor is
+ * at index 0 and an insert costs O(log L) without allocating.
+ */
 public class Nhood {
-    public List<Neighbor> pool;
+    public int[] ids;
+    public float[] distances;
+    public boolean[] flags;
+    public int size;
     public int m;
     public int poolCapacity;
+    // distances[0] of a full heap, +inf otherwise; written under the lock once the heap is
+    // consistent, so that insert can reject far candidates without taking it
+    private volatile float worst = Float.POSITIVE_INFINITY;
     public List<Integer> nnOld = new ArrayList<>();
     public List<Integer> nnNew;
     public List<Integer> rnnOld = new ArrayList<>();
@@ -17,32 +28,63 @@ public class Nhood {
         this.m = s;
         this.nnNew = new ArrayList<>(s * 2);
         Utils.genRandom(random, nnNew, s *2, n);
-        this.pool = new ArrayList<>(l);
+        this.ids = new int[l];
+        this.distances = new float[l];
+        this.flags = new boolean[l];
         poolCapacity = l;
     }
 
-    public void sortPool() {
-        this.pool.sort(new Comparator<Neighbor>() {
-            @Override
-            public int compare(Neighbor o1, Neighbor o2) {
-                return o1.compareTo(o2);
-            }
-        });
+    /**
+     * Append to the pool without restoring the heap; call makeHeap() afterwards.
+     */
+    public void add(int id, float dist, boolean flag) {
+        if (size == poolCapacity) return;
+        ids[size] = id;
+        distances[size] = dist;
+        flags[size] = flag;
+        size ++;
+    }
+
+    public void clearPool() {
+        size = 0;
+        worst = Float.POSITIVE_INFINITY;
     }
 
-    public void insert(int id, double dist) {
-        if (dist > pool.get(0).distance) return;
-        for (Neighbor i: pool) {
-            if (id == i.id) return;
+    /**
+     * Sort the pool by ascending distance in place (heap sort).
+     * The pool is no longer a heap afterwards until makeHeap() is called.
+     */
+    public void sortPool() {
+        makeHeap();
+        for (int end = size - 1; end > 0; end --) {
+            swap(0, end);
+            siftDown(0, end);
         }
-        if (pool.size() < poolCapacity) {
-            pool.add(new Neighbor(id, dist, true));
-            makeHeap();
-        } else {
-            pool.remove(0);
-            makeHeap();
-            pool.add(new Neighbor(id, dist, true));
-            makeHeap();
+        worst = Float.POSITIVE_INFINITY;
+    }
+
+    public void insert(int id, float dist) {
+        // worst is only published after a sift completes and, while the pool is full, only
+        // decreases, so a stale value is never below the true heap top: the unlocked check
+        // can let a candidate through to the locked one but never drops one the pool would take
+        if (dist > worst) return;
+        synchronized (this) {
+            if (size == poolCapacity && dist > distances[0]) return;
+            for (int i = 0; i < size; i ++) {
+                if (ids[i] == id) return;
+            }
+            if (size < poolCapacity) {
+                ids[size] = id;
+                distances[size] = dist;
+                flags[size] = true;
+                siftUp(size ++);
+            } else {
+                ids[0] = id;
+                distances[0] = dist;
+                flags[0] = true;
+                siftDown(0, size);
+            }
+            publishWorst();
         }
     }
 
@@ -61,14 +103,62 @@ public class Nhood {
     }
 
     public void makeHeap() {
-        PriorityQueue<Neighbor> maxHeap = new PriorityQueue<Neighbor>(poolCapacity, new Comparator<Neighbor>() {
-            @Override
-            public int compare(Neighbor o1, Neighbor o2) {
-                return o2.compareTo(o1);
-            }
-        });
-        maxHeap.addAll(pool);
-        pool = new ArrayList<>(maxHeap);
+        for (int i = (size >> 1) - 1; i >= 0; i --) {
+            siftDown(i, size);
+        }
+        publishWorst();
+    }
+
+    private void publishWorst() {
+        worst = size == poolCapacity && size > 0 ? distances[0] : Float.POSITIVE_INFINITY;
+    }
+
+    private void siftUp(int i) {
+        int id = ids[i];
+        float d = distances[i];
+        boolean f = flags[i];
+        while (i > 0) {
+            int p = (i - 1) >> 1;
+            if (distances[p] >= d) break;
+            ids[i] = ids[p];
+            distances[i] = distances[p];
+            flags[i] = flags[p];
+            i = p;
+        }
+        ids[i] = id;
+        distances[i] = d;
+        flags[i] = f;
+    }
+
+    private void siftDown(int i, int n) {
+        int id = ids[i];
+        float d = distances[i];
+        boolean f = flags[i];
+        while (true) {
+            int c = (i << 1) + 1;
+            if (c >= n) break;
+            if (c + 1 < n && distances[c + 1] > distances[c]) c ++;
+            if (distances[c] <= d) break;
+            ids[i] = ids[c];
+            distances[i] = distances[c];
+            flags[i] = flags[c];
+            i = c;
+        }
+        ids[i] = id;
+        distances[i] = d;
+        flags[i] = f;
+    }
+
+    private void swap(int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        float d = distances[a];
+        distances[a] = distances[b];
+        distances[b] = d;
+        boolean f = flags[a];
+        flags[a] = flags[b];
+        flags[b] = f;
     }
 
     public void shuffleRnnNew() {
@@ -0,0 +1,103 @@
+package com.github.algox.indexsearch;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size cache of node records (vector and neighbor ids) for DiskIndex, evicting with CLOCK.
+ * Slots are split into segments by node id, each with its own lock and clock hand, so
+ * concurrent searches rarely wait on each other.
+ */
+class NodeCache {
+    private static final int SEGMENTS = 16;
+
+    private final int dim;
+    private final int width;
+    private final int[] slotOf;
+    private final int[] keys;
+    private final boolean[] referenced;
+    private final int[] degrees;
+    private final float[] vectors;
+    private final int[] neighbors;
+    private final Segment[] segments;
+
+    private static class Segment {
+        final int base;
+        final int capacity;
+        int hand;
+
+        Segment(int base, int capacity) {
+            this.base = base;
+            this.capacity = capacity;
+        }
+    }
+
+    NodeCache(int nd, int capacity, int dim, int width) {
+        capacity = Math.min(capacity, nd);
+        long cap = (long) capacity * Math.max(dim, width);
+        if (cap > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("node cache too large: " + capacity + " nodes");
+        }
+        this.dim = dim;
+        this.width = width;
+        this.slotOf = new int[nd];
+        Arrays.fill(slotOf, -1);
+        this.keys = new int[capacity];
+        Arrays.fill(keys, -1);
+        this.referenced = new boolean[capacity];
+        this.degrees = new int[capacity];
+        this.vectors = new float[capacity * dim];
+        this.neighbors = new int[capacity * width];
+        int count = Math.min(SEGMENTS, Math.max(capacity, 1));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i ++) {
+            int base = (int) ((long) capacity * i / count);
+            int end = (int) ((long) capacity * (i + 1) / count);
+            segments[i] = new Segment(base, end - base);
+        }
+    }
+
+    /**
+     * Copy node id into vec and nbrs if it is cached.
+     * @return its degree, or -1 on a miss
+     */
+    int get(int id, float[] vec, int[] nbrs) {
+        Segment segment = segments[id % segments.length];
+        synchronized (segment) {
+            int slot = slotOf[id];
+            if (slot < 0) return -1;
+            referenced[slot] = true;
+            System.arraycopy(vectors, slot * dim, vec, 0, dim);
+            System.arraycopy(neighbors, slot * width, nbrs, 0, degrees[slot]);
+            return degrees[slot];
+        }
+    }
+
+    void put(int id, float[] vec, int[] nbrs, int degree) {
+        Segment segment = segments[id % segments.length];
+        if (segment.capacity == 0) return;
+        synchronized (segment) {
+            if (slotOf[id] >= 0) return;
+            int slot;
+            while (true) {
+                slot = segment.base + segment.hand;
+                segment.hand = segment.hand + 1 == segment.capacity ? 0 : segment.hand + 1;
+                if (!referenced[slot]) break;
+                referenced[slot] = false;
+            }
+            if (keys[slot] >= 0) {
+                slotOf[keys[slot]] = -1;
+            }
+            keys[slot] = id;
+            slotOf[id] = slot;
+            degrees[slot] = degree;
+            System.arraycopy(vec, 0, vectors, slot * dim, dim);
+            System.arraycopy(nbrs, 0, neighbors, slot * width, degree);
+        }
+    }
+
+    boolean contains(int id) {
+        synchronized (segments[id % segments.length]) {
+            return slotOf[id] >= 0;
+        }
+    }
+}
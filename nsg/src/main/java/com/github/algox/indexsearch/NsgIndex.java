@@ -2,16 +2,19 @@ package com.github.algox.indexsearch;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.nd4j.linalg.api.rng.Random;
-import org.nd4j.linalg.cpu.nativecpu.rng.CpuNativeRandom;
 
 import java.io.*;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
 
 public class NsgIndex {
-    private static List<List<Integer>> finalGraph;
-    private List<double[]> data;
+    private static final int LOCK_STRIPES = 4096;
+    private static final int FILTER_SAMPLE = 256;
+    private GraphStore finalGraph;
+    private VectorStore data;
     private int r;
     private int dim;
     private int nd;
@@ -20,11 +23,25 @@ public class NsgIndex {
     private int c;
     private int width;
     private Distance distance;
-    private Random random = new CpuNativeRandom();
+    private PqCodes pqCodes;
+    private VectorStore rerankData;
+    private final BitSet deleted = new BitSet();
+    private final IntPredicate live = id -> !deleted.get(id);
+    private int filterScanLimit = 2048;
+    private int entryPointCount;
+    private EntryPoints entryPoints = EntryPoints.NONE;
+    private final ThreadLocal<SearchContext> contexts = ThreadLocal.withInitial(SearchContext::new);
+    private ForkJoinPool searchPool = ForkJoinPool.commonPool();
+    private ForkJoinPool buildPool = ForkJoinPool.commonPool();
 
     public NsgIndex(List<double[]> data) {
+        this(FloatVectorStore.fromDoubles(data));
+    }
+
+    public NsgIndex(VectorStore data) {
         this.data = data;
         this.nd = data.size();
+        this.dim = data.dim();
     }
 
     public void setR(int r) {
@@ -47,352 +64,319 @@ public class NsgIndex {
         this.distance = distance;
     }
 
+    public void setSearchPool(ForkJoinPool searchPool) {
+        this.searchPool = searchPool;
+    }
+
+    public void setBuildPool(ForkJoinPool buildPool) {
+        this.buildPool = buildPool;
+    }
+
+    /**
+     * Number of entry points build() picks, see buildEntryPoints. 0, the default, searches from ep only.
+     */
+    public void setEntryPointCount(int entryPointCount) {
+        this.entryPointCount = entryPointCount;
+    }
+
+    /**
+     * Entry nodes with copies of their vectors. A search scans them and starts from the one
+     * closest to the query, which is cheap next to the walk it shortens.
+     */
+    private static class EntryPoints {
+        static final EntryPoints NONE = new EntryPoints(new int[0], new float[0]);
+
+        final int[] ids;
+        final float[] vectors;
+
+        EntryPoints(int[] ids, float[] vectors) {
+            this.ids = ids;
+            this.vectors = vectors;
+        }
+    }
+
+    /**
+     * Navigate the graph on product-quantized distances; the vector store is then only
+     * read to rerank the final candidates. Pass null to search on exact distances again.
+     */
+    public void setPqCodes(PqCodes pqCodes) {
+        if (pqCodes != null && pqCodes.size() != nd) {
+            throw new IllegalArgumentException("PQ codes cover " + pqCodes.size() + " vectors but the index has " + nd);
+        }
+        this.pqCodes = pqCodes;
+    }
+
+    /**
+     * Rerank the final candidates against exact vectors, for indexes built and searched
+     * on a compressed store such as Int8VectorStore or Fp16VectorStore. Pass null to
+     * return the distances of the index's own store again.
+     */
+    public void setRerankData(VectorStore rerankData) {
+        if (rerankData != null && rerankData.size() != nd) {
+            throw new IllegalArgumentException("rerank store has " + rerankData.size() + " vectors but the index has " + nd);
+        }
+        this.rerankData = rerankData;
+    }
+
     private void initNsgGarph() {
-        double[] center = new double[dim];
+        double[] sum = new double[dim];
+        float[] row = new float[dim];
         for (int i = 0; i < nd; i ++) {
+            data.get(i, row);
             for (int j = 0; j < dim; j ++) {
-                center[j] = center[j] + data.get(i)[j];
+                sum[j] = sum[j] + row[j];
             }
         }
+        float[] center = new float[dim];
         for (int j = 0; j < dim; j ++) {
-            center[j] = center[j] / nd;
+            center[j] = (float) (sum[j] / nd);
         }
-        List<Neighbor> tmp = new ArrayList<>(l);
-        for (int i = 0; i < l; i ++) {
-            tmp.add(new Neighbor());
-        }
-        List<Neighbor> pool = new ArrayList<>();
-        ep = random.nextInt() % nd;
-        getNeighbors(center, tmp, pool);
-        ep = tmp.get(0).id;
+        SearchContext ctx = contexts.get();
+        ep = ThreadLocalRandom.current().nextInt(nd);
+        searchInternal(ctx, center, l, false);
+        ep = ctx.pool.id(0);
     }
 
-    private void getNeighbors(double[] query, List<Neighbor> retset, List<Neighbor> fullset) {
-        int[] initIds = new int[l];
-        boolean[] flags = new boolean[nd];
-        int ll = 0;
-        for (int i = 0; i < initIds.length && i < finalGraph.get(ep).size(); i ++) {
-            initIds[i] = finalGraph.get(ep).get(i);
-            flags[initIds[i]] = true;
-            ll ++;
-        }
-        while (ll < initIds.length) {
-            int id = random.nextInt() % nd;
-            if (flags[id]) continue;
-            ll ++;
-            flags[id] = true;
-        }
-        ll = 0;
-        for (int i = 0; i < initIds.length; i ++) {
-            int id = initIds[i];
-            if (id >= nd) continue;
-            double dist = distance.distance(query, data.get(id));
-            retset.set(i, new Neighbor(id, dist, true));
-            ll++;
-        }
-        retset.sort(new Comparator<Neighbor>() {
-            @Override
-            public int compare(Neighbor o1, Neighbor o2) {
-                return o1.compareTo(o2);
-            }
+    /**
+     * Prune every node's candidate set into cutIds/cutDists (stride r, distance -1 ends a list),
+     * then add the reverse edges. Both passes run on the build pool.
+     */
+    private void link(int[] cutIds, float[] cutDists) {
+        width = r;
+        Utils.parallelFor(buildPool, nd, i -> {
+            SearchContext ctx = contexts.get();
+            searchInternal(ctx, data.get(i, ctx.row(dim)), l, true);
+            syncPrune(i, ctx, cutIds, cutDists);
         });
-        int k = 0;
-        while (k < ll) {
-            int  nk = ll;
-            if (retset.get(k).flag) {
-                retset.get(k).flag = false;
-                int n = retset.get(k).id;
-                for (int id: finalGraph.get(n)) {
-                    if (flags[id]) continue;
-                    flags[id] = true;
-                    double dist = distance.distance(query, data.get(id));
-                    Neighbor nn = new Neighbor(id, dist, true);
-                    fullset.add(nn);
-                    if (dist >= retset.get(ll -1).distance) continue;
-                    int rr = insertIntoPool(retset, ll, nn);
-                    if (ll + 1 < retset.size()) ++ll;
-                    if (rr < nk) nk = rr;
-                }
-            }
-            if (nk <= k) {
-                k = nk;
-            } else {
-                ++k;
-            }
+        Object[] locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i ++) {
+            locks[i] = new Object();
         }
+        Utils.parallelFor(buildPool, nd, n -> insertInto(n, r, cutIds, cutDists, locks, contexts.get()));
     }
 
-    private int insertIntoPool(List<Neighbor> addr, int k, Neighbor nn) {
-        int left = 0;
-        int right = k - 1;
-        if (addr.get(left).distance > nn.distance) {
-            addr.add(left, nn);
-            addr.remove(addr.size() - 1);
-            return left;
-        }
-        if (addr.get(right).distance < nn.distance) {
-            addr.set(k, nn);
-            return k;
-        }
-        while (left < right - 1) {
-            int mid = (left + right) / 2;
-            if (addr.get(mid).distance > nn.distance) {
-                right = mid;
-            } else {
-                left = mid;
+    private void insertInto(int n, int range, int[] cutIds, float[] cutDists, Object[] locks, SearchContext ctx) {
+        ctx.ensureBuffers(range + 1);
+        int[] snapIds = ctx.bufIds;
+        float[] snapDists = ctx.bufDists;
+        int cnt = 0;
+        synchronized (locks[n & (LOCK_STRIPES - 1)]) {
+            int off = n * range;
+            while (cnt < range && cutDists[off + cnt] != -1) {
+                snapIds[cnt] = cutIds[off + cnt];
+                snapDists[cnt] = cutDists[off + cnt];
+                cnt ++;
             }
         }
-
-        while (left > 0) {
-            if (addr.get(left).distance < nn.distance) break;
-            if (addr.get(left).id == nn.id) return k + 1;
-            left --;
-        }
-        if (addr.get(left).id == nn.id || addr.get(right).id == nn.id) return k + 1;
-        addr.add(right, nn);
-        addr.remove(addr.size() - 1);
-        return right;
-    }
-
-    public void link(List<SimpleNeighbor[]> cutGraph) {
-        List<Neighbor> pool = new ArrayList<>();
-        List<Neighbor> tmp = new ArrayList<>(l);
-        for (int i = 0; i < l; i ++) {
-            tmp.add(new Neighbor());
-        }
-        boolean[] flags;
-        for (int i = 0; i < nd; ++ i) {
-            pool.clear();
-            for (int j = 0; j < l; j ++) {
-                tmp.set(j, new Neighbor());
-            }
-            flags = new boolean[nd];
-            getNeighbors(data.get(i), flags, tmp, pool);
-            syncPrune(i, pool, flags, cutGraph);
-        }
-        for (int n = 0; n < nd;  ++ n) {
-            insertInto(n, r, cutGraph);
-        }
-    }
-
-    private void insertInto(int n, int range, List<SimpleNeighbor[]> cutGraph) {
-        for (int i = 0; i < range; i ++) {
-            if (cutGraph.get(n)[i].distance == -1) break;
-            SimpleNeighbor sn = new SimpleNeighbor(n, cutGraph.get(n)[i].distance);
-            int des = cutGraph.get(n)[i].id;
-            List<SimpleNeighbor> tmpPool = new ArrayList<>();
-            boolean dup = false;
-            for (int j = 0; j < range; j ++) {
-                if (cutGraph.get(des)[j].distance == -1) break;
-                if (n == cutGraph.get(des)[j].id) {
-                    dup = true;
-                    break;
-                }
-                tmpPool.add(cutGraph.get(des)[j]);
-            }
-            if (dup) continue;
-            tmpPool.add(sn);
-            if (tmpPool.size() > range) {
-                List<SimpleNeighbor> result = new ArrayList<>();
-                int start = 0;
-                tmpPool.sort(new Comparator<SimpleNeighbor>() {
-                    @Override
-                    public int compare(SimpleNeighbor o1, SimpleNeighbor o2) {
-                        return o1.compareTo(o2);
-                    }
-                });
-                result.add(tmpPool.get(start));
-                while (result.size() < range && (++start) < tmpPool.size()) {
-                    SimpleNeighbor p = tmpPool.get(start);
-                    boolean occlude = false;
-                    for (SimpleNeighbor simpleNeighbor : result) {
-                        if (p.id == simpleNeighbor.id) {
-                            occlude = true;
-                            break;
-                        }
-                        double djk = distance.distance(data.get(simpleNeighbor.id), data.get(p.id));
-                        if (djk < p.distance) {
-                            occlude = true;
-                            break;
-                        }
-                    }
-                    if (!occlude) {
-                        result.add(p);
+        int[] tmpIds = ctx.tmpIds;
+        float[] tmpDists = ctx.tmpDists;
+        for (int i = 0; i < cnt; i ++) {
+            int des = snapIds[i];
+            float dist = snapDists[i];
+            synchronized (locks[des & (LOCK_STRIPES - 1)]) {
+                int off = des * range;
+                int size = 0;
+                boolean dup = false;
+                for (; size < range; size ++) {
+                    if (cutDists[off + size] == -1) break;
+                    if (cutIds[off + size] == n) {
+                        dup = true;
+                        break;
                     }
                 }
-                for (int t = 0; t < result.size(); t ++) {
-                    cutGraph.get(des)[t] = result.get(t);
-                }
-            } else {
-                for (int t = 0; t < range; t ++) {
-                    if (cutGraph.get(des)[t].distance == -1) {
-                        cutGraph.get(des)[t] = sn;
-                        if (t + 1 < range) {
-                            cutGraph.get(des)[t + 1] = new SimpleNeighbor(0, -1);
-                        }
-                        break;
+                if (dup) continue;
+                if (size < range) {
+                    cutIds[off + size] = n;
+                    cutDists[off + size] = dist;
+                    if (size + 1 < range) {
+                        cutDists[off + size + 1] = -1;
                     }
+                    continue;
+                }
+                System.arraycopy(cutIds, off, tmpIds, 0, size);
+                System.arraycopy(cutDists, off, tmpDists, 0, size);
+                tmpIds[size] = n;
+                tmpDists[size] = dist;
+                Utils.sort(tmpIds, tmpDists, size + 1);
+                int count = occlusionPrune(tmpIds, tmpDists, 0, size + 1, range, cutIds, cutDists, off);
+                if (count < range) {
+                    cutDists[off + count] = -1;
                 }
             }
         }
     }
 
-    private void syncPrune(int q, List<Neighbor> pool, boolean[] flags, List<SimpleNeighbor[]> cutGraph) {
-        int range = r;
-        int maxc = c;
-        width = range;
-        int start = 0;
-        for (int nn = 0; nn < finalGraph.get(q).size(); nn ++) {
-            int id = finalGraph.get(q).get(nn);
-            if (flags[id]) continue;
-            double dist = distance.distance(data.get(q), data.get(id));
-            pool.add(new Neighbor(id, dist, true));
-        }
-        pool.sort(new Comparator<Neighbor>() {
-            @Override
-            public int compare(Neighbor o1, Neighbor o2) {
-                return o1.compareTo(o2);
-            }
-        });
-        List<Neighbor> result = new ArrayList<>();
-        if (pool.get(start).id == q) start ++;
-        result.add(pool.get(start));
-
-        while (result.size() < range && (++ start) < pool.size() && start < maxc) {
-            Neighbor p = pool.get(start);
+    /**
+     * Greedily keep candidates from pool[start, end) (sorted by distance) that are not occluded by an
+     * already kept neighbor, writing at most range of them to outIds/outDists starting at off.
+     * @return the number of neighbors kept
+     */
+    private int occlusionPrune(int[] poolIds, float[] poolDists, int start, int end, int range,
+                               int[] outIds, float[] outDists, int off) {
+        if (start >= end) return 0;
+        outIds[off] = poolIds[start];
+        outDists[off] = poolDists[start];
+        int count = 1;
+        while (count < range && (++ start) < end) {
+            int p = poolIds[start];
+            float pd = poolDists[start];
             boolean occlude = false;
-            for (Neighbor neighbor : result) {
-                if (p.id == neighbor.id) {
+            for (int t = 0; t < count; t ++) {
+                int id = outIds[off + t];
+                if (p == id) {
                     occlude = true;
                     break;
                 }
-                double djk = distance.distance(data.get(neighbor.id), data.get(p.id));
-                if (djk < p.distance) {
+                float djk = distance.distance(data, id, p);
+                if (djk < pd) {
                     occlude = true;
                     break;
                 }
             }
             if (!occlude) {
-                result.add(p);
+                outIds[off + count] = p;
+                outDists[off + count] = pd;
+                count ++;
             }
         }
-        SimpleNeighbor[] neighbors = new SimpleNeighbor[r];
-        for (int t = 0; t < result.size(); t ++) {
-            neighbors[t] = new SimpleNeighbor(result.get(t).id, result.get(t).distance);
+        return count;
+    }
+
+    private void syncPrune(int q, SearchContext ctx, int[] cutIds, float[] cutDists) {
+        int[] nbrs = ctx.neighbors;
+        int degree = finalGraph.copyNeighbors(q, nbrs);
+        for (int nn = 0; nn < degree; nn ++) {
+            int id = nbrs[nn];
+            if (ctx.isVisited(id)) continue;
+            ctx.collect(id, distance.distance(data, q, id));
         }
-        if (result.size() < range) {
-            neighbors[result.size()] = new SimpleNeighbor(0, -1);
+        int[] poolIds = ctx.visitedIds;
+        float[] poolDists = ctx.visitedDists;
+        int size = Math.min(ctx.visitedCount, c);
+        Utils.sort(poolIds, poolDists, ctx.visitedCount);
+        int start = 0;
+        if (size > 0 && poolIds[start] == q) start ++;
+        int off = q * r;
+        int count = occlusionPrune(poolIds, poolDists, start, size, r, cutIds, cutDists, off);
+        if (count < r) {
+            cutDists[off + count] = -1;
         }
-        cutGraph.add(neighbors);
     }
 
 
     public void build(String path) throws IOException {
-        loadNNGraph(path);
+        build(loadNNGraph(path));
+    }
+
+    public void build(GraphStore nnGraph) {
+        finalGraph = nnGraph;
+        entryPoints = EntryPoints.NONE;
         initNsgGarph();
-        List<SimpleNeighbor[]> cutGraph = new ArrayList<>();
-        link(cutGraph);
+        long cap = (long) nd * r;
+        if (cap > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("graph too large: nd = " + nd + ", r = " + r);
+        }
+        int[] cutIds = new int[(int) cap];
+        float[] cutDists = new float[(int) cap];
+        link(cutIds, cutDists);
+        GraphStore nsgGraph = new GraphStore(nd, r);
         for (int i = 0; i < nd; i ++) {
             int poolSize = 0;
             for (int j = 0; j < r; j ++) {
-                if (cutGraph.get(i)[j].distance == -1) break;
-                poolSize = j;
-            }
-            poolSize ++;
-            finalGraph.set(i, finalGraph.get(i).subList(0, poolSize));
-            for (int j = 0; j < poolSize; j ++) {
-                finalGraph.get(i).set(j, cutGraph.get(i)[j].id);
+                if (cutDists[i * r + j] == -1) break;
+                nsgGraph.set(i, j, cutIds[i * r + j]);
+                poolSize ++;
             }
+            nsgGraph.setDegree(i, poolSize);
         }
+        finalGraph = nsgGraph;
         treeGrow();
         double max = 0;
         double min = 1e6;
         double avg = 0;
         for (int i = 0; i < nd; i ++) {
-            int size = finalGraph.get(i).size();
+            int size = finalGraph.degree(i);
             max = max < size ? size : max;
             min = min > size ? size : min;
             avg += size;
         }
         avg = avg / nd;
         System.out.println(String.format("Degree Statistics: Max = %f, Min = %f, Avg = %f\n", max, min, avg));
+        if (entryPointCount > 0) {
+            buildEntryPoints(entryPointCount);
+        }
     }
 
-
-    private void getNeighbors(double[] query, boolean[] flags, List<Neighbor> retset, List<Neighbor> fullSet) {
-        int[] initIds = new int[l];
-        int ll = 0;
-        for (int i = 0; i < initIds.length && i < finalGraph.get(ep).size(); i ++) {
-            initIds[i] = finalGraph.get(ep).get(i);
-            flags[initIds[i]] = true;
-            ll ++;
-        }
-        while (ll < initIds.length) {
-            int id = random.nextInt() % nd;
-            if (flags[id]) continue;
-            initIds[ll] = id;
-            ll ++;
-            flags[id] = true;
-        }
-
-        ll = 0;
-        for (int i = 0; i < initIds.length; i ++) {
-            int id = initIds[i];
-            if (id >= nd) continue;
-            double dist = distance.distance(data.get(id), query);
-            retset.set(i, new Neighbor(id, dist, true));
-            fullSet.add(retset.get(i));
-            ll ++;
-        }
-        retset.sort(new Comparator<Neighbor>() {
-            @Override
-            public int compare(Neighbor o1, Neighbor o2) {
-                return o1.compareTo(o2);
-            }
-        });
-        int k = 0;
-        while (k < ll) {
-            int nk = ll;
-            if (retset.get(k).flag) {
-                retset.get(k).flag = false;
-                int n = retset.get(k).id;
-                for (int id : finalGraph.get(n)) {
-                    if (flags[id]) continue;
-                    flags[id] = true;
-                    double dist = distance.distance(data.get(id), query);
-                    Neighbor nn = new Neighbor(id, dist, true);
-                    fullSet.add(nn);
-                    if (dist >= retset.get(ll - 1).distance) continue;
-                    int rr = insertIntoPool(retset, ll, nn);
-                    if (ll + 1 < retset.size()) ++ll;
-                    if (rr < nk) nk = rr;
+    /**
+     * Pick up to count entry nodes besides ep: k-means centroids of a sample of the data,
+     * each moved to its nearest node by a graph search. Queries far from the medoid then
+     * start next to their region instead of walking there from ep. Stored by save().
+     */
+    public void buildEntryPoints(int count) {
+        if (count <= 0) {
+            entryPoints = EntryPoints.NONE;
+            return;
+        }
+        int n = Math.min(nd, count * 64);
+        int k = Math.min(count, n);
+        Random random = new Random(4321L);
+        float[] sample = new float[n * dim];
+        float[] row = new float[dim];
+        for (int i = 0; i < n; i ++) {
+            int id = n == nd ? i : random.nextInt(nd);
+            System.arraycopy(data.get(id, row), 0, sample, i * dim, dim);
+        }
+        float[] centroids = ProductQuantizer.kmeans(sample, n, dim, k, 10, random);
+        int[] ids = new int[k + 1];
+        int m = 0;
+        ids[m ++] = ep;
+        SearchContext ctx = contexts.get();
+        float[] centroid = new float[dim];
+        for (int i = 0; i < k; i ++) {
+            System.arraycopy(centroids, i * dim, centroid, 0, dim);
+            searchInternal(ctx, centroid, Math.max(l, 16), false);
+            for (int j = 0; j < ctx.pool.size(); j ++) {
+                int id = ctx.pool.id(j);
+                if (deleted.get(id)) continue;
+                boolean dup = false;
+                for (int t = 0; t < m && !dup; t ++) {
+                    dup = ids[t] == id;
                 }
-            }
-            if (nk <= k) {
-                k = nk;
-            } else {
-                ++ k;
+                if (!dup) ids[m ++] = id;
+                break;
             }
         }
+        setEntryPoints(Arrays.copyOf(ids, m));
+    }
+
+    private void setEntryPoints(int[] ids) {
+        float[] vectors = new float[ids.length * dim];
+        float[] row = new float[dim];
+        for (int i = 0; i < ids.length; i ++) {
+            System.arraycopy(data.get(ids[i], row), 0, vectors, i * dim, dim);
+        }
+        entryPoints = ids.length == 0 ? EntryPoints.NONE : new EntryPoints(ids, vectors);
+    }
+
+    public int[] getEntryPoints() {
+        return entryPoints.ids.clone();
     }
 
     private void treeGrow() {
         int root = ep;
         boolean[] flags = new boolean[nd];
+        int[] stack = new int[nd];
         int unlinkedCnt = 0;
         while (unlinkedCnt < nd) {
-            unlinkedCnt = dfs(flags, root, unlinkedCnt);
+            unlinkedCnt = dfs(flags, stack, root, unlinkedCnt);
             if (unlinkedCnt >= nd) break;
-            findRoot(flags, root);
-        }
-        for (int i = 0; i < nd; ++ i) {
-            if (finalGraph.get(i).size() > width) {
-                width = finalGraph.get(i).size();
-            }
+            root = findRoot(flags, root);
         }
+        finalGraph.trim();
+        width = finalGraph.width();
     }
 
-    private void findRoot(boolean[] flags, int root) {
+    private int findRoot(boolean[] flags, int root) {
         int id = nd;
         for (int i = 0; i < nd; i ++) {
             if (!flags[i]) {
@@ -400,95 +384,145 @@ public class NsgIndex {
                 break;
             }
         }
-        if (id == nd) return;
-        List<Neighbor> tmp = new ArrayList<>(l);
-        for (int i = 0; i > l; i ++) {
-            tmp.add(new Neighbor());
-        }
-        List<Neighbor> pool = new ArrayList<>();
-        getNeighbors(data.get(id), tmp, pool);
-        pool.sort(new Comparator<Neighbor>() {
-            @Override
-            public int compare(Neighbor o1, Neighbor o2) {
-                return o1.compareTo(o2);
-            }
-        });
+        if (id == nd) return root;
+        SearchContext ctx = contexts.get();
+        searchInternal(ctx, data.get(id, ctx.row(dim)), l, true);
+        Utils.sort(ctx.visitedIds, ctx.visitedDists, ctx.visitedCount);
         boolean found = false;
-        for (Neighbor neighbor : pool) {
-            if (flags[neighbor.id]) {
-                root = neighbor.id;
+        for (int i = 0; i < ctx.visitedCount; i ++) {
+            if (flags[ctx.visitedIds[i]]) {
+                root = ctx.visitedIds[i];
                 found = true;
                 break;
             }
         }
-        if (found) {
+        if (!found) {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
             while (true) {
-                int rid = random.nextInt() % nd;
+                int rid = rnd.nextInt(nd);
                 if (flags[rid]) {
                     root = rid;
                     break;
                 }
             }
         }
-        finalGraph.get(root).add(id);
+        finalGraph.add(root, id);
+        return root;
     }
 
-    private int dfs(boolean[] flags, int root, int cnt) {
+    private int dfs(boolean[] flags, int[] stack, int root, int cnt) {
         int c = cnt;
         int tmp = root;
-        Stack<Integer> s = new Stack<>();
-        s.push(root);
+        int top = 0;
+        stack[top ++] = root;
         if (!flags[root]) c ++;
         flags[root] = true;
-        while (!s.empty()) {
+        while (top > 0) {
             int next = nd + 1;
-            for (int i : finalGraph.get(tmp)) {
-                if (!flags[i]) {
-                    next = i;
+            int degree = finalGraph.degree(tmp);
+            for (int i = 0; i < degree; i ++) {
+                int id = finalGraph.get(tmp, i);
+                if (!flags[id]) {
+                    next = id;
                     break;
                 }
             }
             if (next == (nd + 1)) {
-                s.pop();
-                if (s.empty()) break;
-                tmp = s.peek();
+                top --;
+                if (top == 0) break;
+                tmp = stack[top - 1];
                 continue;
             }
             tmp = next;
             flags[tmp] = true;
-            s.push(tmp);
+            stack[top ++] = tmp;
             c ++;
         }
         return c;
     }
 
 
-    private void loadNNGraph(String path) throws IOException {
-        finalGraph = new ArrayList<>();
-        FileInputStream in = FileUtils.openInputStream(new File(path));
-        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-        String tempString = null;
-        while ((tempString = reader.readLine()) != null) {
-            finalGraph.add(Arrays.stream(StringUtils.split(tempString, " ")).map(Integer::valueOf).collect(Collectors.toList()));
+    private GraphStore loadNNGraph(String path) throws IOException {
+        if (GraphIO.isBinary(path)) {
+            return GraphIO.map(path, false).graph;
+        }
+        List<int[]> rows = new ArrayList<>();
+        int maxDegree = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(FileUtils.openInputStream(new File(path))))) {
+            String tempString;
+            while ((tempString = reader.readLine()) != null) {
+                int[] row = parseIds(tempString);
+                maxDegree = Math.max(maxDegree, row.length);
+                rows.add(row);
+            }
+        }
+        GraphStore graph = new GraphStore(rows.size(), maxDegree);
+        for (int i = 0; i < rows.size(); i ++) {
+            graph.setNeighbors(i, rows.get(i), rows.get(i).length);
         }
-        reader.close();
+        return graph;
     }
 
-    public void save(String path) throws FileNotFoundException {
-        PrintWriter writer = new PrintWriter(new File(path));
-        writer.write(width + "\n");
-        writer.write(ep + "\n");
-        for (List<Integer> d : finalGraph) {
-            writer.write(StringUtils.join(d, " ") + "\n");
+    private static int[] parseIds(String line) {
+        String[] sp = StringUtils.split(line, " ");
+        int[] ids = new int[sp.length];
+        for (int i = 0; i < sp.length; i ++) {
+            ids[i] = Integer.parseInt(sp[i]);
         }
-        writer.close();
+        return ids;
+    }
+
+    /**
+     * Write the index in the binary format of GraphIO.
+     */
+    public void save(String path) throws IOException {
+        GraphIO.write(finalGraph, ep, deleted.stream().toArray(), entryPoints.ids, path);
+    }
+
+    /**
+     * Write the graph together with the vectors as a DiskIndex file. Deleted ids are
+     * written too, so the disk index does not return them.
+     */
+    public void saveDisk(String path) throws IOException {
+        DiskIndex.write(finalGraph, data, ep, deleted, path);
     }
 
     public void load(String path) throws IOException {
+        load(path, false);
+    }
+
+    /**
+     * Load a saved index. Binary files are memory-mapped read-only; the older
+     * text format (width, ep, then one line of ids per node) is still accepted.
+     * @param verify check the binary file's checksum before using it
+     */
+    public void load(String path, boolean verify) throws IOException {
+        deleted.clear();
+        entryPoints = EntryPoints.NONE;
+        if (GraphIO.isBinary(path)) {
+            GraphIO.GraphFile file = GraphIO.map(path, verify);
+            finalGraph = file.graph;
+            ep = file.ep;
+            width = finalGraph.width();
+            for (int id : file.deleted) {
+                deleted.set(id);
+            }
+            if (file.entryPoints.length > 0) {
+                setEntryPoints(file.entryPoints);
+            }
+        } else {
+            loadText(path);
+        }
+        if (finalGraph.size() != nd) {
+            throw new IOException("graph has " + finalGraph.size() + " nodes but the index has " + nd + " vectors");
+        }
+    }
+
+    private void loadText(String path) throws IOException {
         FileInputStream in = FileUtils.openInputStream(new File(path));
         InputStreamReader reader = new InputStreamReader(in);
         BufferedReader rd = new BufferedReader(reader);
-        finalGraph = new ArrayList<>(nd);
+        List<int[]> rows = new ArrayList<>(nd);
         String line;
         int i = 0;
         while ((line = rd.readLine()) != null) {
@@ -502,61 +536,505 @@ public class NsgIndex {
                 i ++;
                 continue;
             }
-            List<Integer> list = Arrays.stream(StringUtils.split(line, " ")).map(Integer::parseInt).collect(Collectors.toList());
-            finalGraph.add(list);
+            rows.add(parseIds(line));
             i ++;
         }
         rd.close();
         in.close();
+        finalGraph = new GraphStore(rows.size(), width);
+        for (int j = 0; j < rows.size(); j ++) {
+            finalGraph.setNeighbors(j, rows.get(j), rows.get(j).length);
+        }
+    }
+
+    /**
+     * Insert one vector into a built index: search for its neighbors, prune them like the
+     * build does and add the reverse edges, pruning any neighbor that overflows.
+     * The vector store must be a FloatVectorStore (and so must the rerank store, if set);
+     * PQ codes, if set, are extended too. Not safe to run concurrently with searches.
+     * @return the id of the new vector
+     */
+    public synchronized int add(float[] vector) {
+        FloatVectorStore store = growable(data);
+        FloatVectorStore rerankStore = rerankData == null ? null : growable(rerankData);
+        GraphStore graph = mutableGraph();
+        int range = r > 0 ? r : graph.width();
+        int id = store.add(vector);
+        if (rerankStore != null) {
+            rerankStore.add(vector);
+        }
+        if (pqCodes != null) {
+            pqCodes.add(vector);
+        }
+        graph.addNode();
+        nd = store.size();
+        SearchContext ctx = contexts.get();
+        searchInternal(ctx, vector, Math.max(l, range), true);
+        int count = pruneCandidates(ctx, id, range);
+        int[] ids = Arrays.copyOf(ctx.bufIds, count);
+        float[] dists = Arrays.copyOf(ctx.bufDists, count);
+        graph.setNeighbors(id, ids, count);
+        for (int i = 0; i < count; i ++) {
+            insertEdge(graph, ids[i], id, dists[i], range, ctx);
+        }
+        width = graph.width();
+        return id;
+    }
+
+    /**
+     * Tombstone a node: it is no longer returned by searches but still routes them until
+     * consolidate() rewires the edges around it. Ids are never reused. Like add(), not safe
+     * to run concurrently with searches.
+     */
+    public synchronized void delete(int id) {
+        if (id < 0 || id >= nd) {
+            throw new IllegalArgumentException("no such node: " + id);
+        }
+        deleted.set(id);
+    }
+
+    public boolean isDeleted(int id) {
+        return deleted.get(id);
+    }
+
+    public int getDeletedCount() {
+        return deleted.cardinality();
+    }
+
+    /**
+     * Remove deleted nodes from the graph. Every live node that points at a deleted one is
+     * re-pruned over its live neighbors plus the live neighbors of its deleted ones, then the
+     * deleted nodes lose their edges. A deleted navigating node is replaced by the nearest live one.
+     * Not safe to run concurrently with searches.
+     * @return the number of nodes whose edges were rewritten
+     */
+    public synchronized int consolidate() {
+        if (deleted.isEmpty()) return 0;
+        GraphStore graph = mutableGraph();
+        int range = r > 0 ? r : graph.width();
+        graph.ensureWidth(range);
+        if (deleted.get(ep)) {
+            SearchContext ctx = contexts.get();
+            searchInternal(ctx, data.get(ep, ctx.row(dim)), Math.max(l, range), false);
+            for (int i = 0; i < ctx.pool.size(); i ++) {
+                if (!deleted.get(ctx.pool.id(i))) {
+                    ep = ctx.pool.id(i);
+                    break;
+                }
+            }
+        }
+        LongAdder repaired = new LongAdder();
+        Utils.parallelFor(buildPool, nd, n -> {
+            if (deleted.get(n)) return;
+            int degree = graph.degree(n);
+            boolean affected = false;
+            for (int i = 0; i < degree && !affected; i ++) {
+                affected = deleted.get(graph.get(n, i));
+            }
+            if (!affected) return;
+            SearchContext ctx = contexts.get();
+            ctx.reset(nd, graph.width(), 0);
+            ctx.visit(n);
+            for (int i = 0; i < degree; i ++) {
+                int m = graph.get(n, i);
+                if (!deleted.get(m)) {
+                    if (ctx.visit(m)) ctx.collect(m, distance.distance(data, n, m));
+                    continue;
+                }
+                int d = graph.degree(m);
+                for (int j = 0; j < d; j ++) {
+                    int t = graph.get(m, j);
+                    if (deleted.get(t) || !ctx.visit(t)) continue;
+                    ctx.collect(t, distance.distance(data, n, t));
+                }
+            }
+            int count = pruneCandidates(ctx, n, range);
+            // only row n is written and rows of deleted nodes are only read, so tasks do not conflict
+            graph.setNeighbors(n, ctx.bufIds, count);
+            repaired.increment();
+        });
+        for (int n = deleted.nextSetBit(0); n >= 0; n = deleted.nextSetBit(n + 1)) {
+            graph.setDegree(n, 0);
+        }
+        int[] entries = entryPoints.ids.clone();
+        int live = 0;
+        for (int id : entries) {
+            if (!deleted.get(id) && id != ep) entries[live ++] = id;
+        }
+        if (live < entries.length) {
+            int[] ids = new int[live + 1];
+            ids[0] = ep;
+            System.arraycopy(entries, 0, ids, 1, live);
+            setEntryPoints(ids);
+        }
+        width = graph.width();
+        return repaired.intValue();
+    }
+
+    /**
+     * Occlusion-prune the candidates collected in ctx for node q into ctx.bufIds/bufDists,
+     * skipping q itself and deleted nodes.
+     * @return the number of neighbors kept
+     */
+    private int pruneCandidates(SearchContext ctx, int q, int range) {
+        int size = 0;
+        for (int i = 0; i < ctx.visitedCount; i ++) {
+            int id = ctx.visitedIds[i];
+            if (id == q || deleted.get(id)) continue;
+            ctx.visitedIds[size] = id;
+            ctx.visitedDists[size] = ctx.visitedDists[i];
+            size ++;
+        }
+        Utils.sort(ctx.visitedIds, ctx.visitedDists, size);
+        if (c > 0) size = Math.min(size, c);
+        ctx.ensureBuffers(range + 1);
+        return occlusionPrune(ctx.visitedIds, ctx.visitedDists, 0, size, range, ctx.bufIds, ctx.bufDists, 0);
+    }
+
+    /**
+     * Add the edge des -> id, re-pruning des when it is already full.
+     */
+    private void insertEdge(GraphStore graph, int des, int id, float dist, int range, SearchContext ctx) {
+        if (graph.contains(des, id)) return;
+        int degree = graph.degree(des);
+        if (degree < range) {
+            graph.add(des, id);
+            return;
+        }
+        ctx.ensureBuffers(degree + 1);
+        int[] tmpIds = ctx.tmpIds;
+        float[] tmpDists = ctx.tmpDists;
+        for (int i = 0; i < degree; i ++) {
+            tmpIds[i] = graph.get(des, i);
+            tmpDists[i] = distance.distance(data, des, tmpIds[i]);
+        }
+        tmpIds[degree] = id;
+        tmpDists[degree] = dist;
+        Utils.sort(tmpIds, tmpDists, degree + 1);
+        int count = occlusionPrune(tmpIds, tmpDists, 0, degree + 1, range, ctx.bufIds, ctx.bufDists, 0);
+        graph.setNeighbors(des, ctx.bufIds, count);
+    }
+
+    private static FloatVectorStore growable(VectorStore store) {
+        if (!(store instanceof FloatVectorStore)) {
+            throw new UnsupportedOperationException("cannot add vectors to a " + store.getClass().getSimpleName());
+        }
+        return (FloatVectorStore) store;
+    }
+
+    /**
+     * The graph, copied to the heap first if it is memory-mapped.
+     */
+    private GraphStore mutableGraph() {
+        if (finalGraph instanceof MappedGraphStore) {
+            GraphStore src = finalGraph;
+            GraphStore graph = new GraphStore(src.size(), src.width());
+            int[] row = new int[src.width()];
+            for (int n = 0; n < src.size(); n ++) {
+                graph.setNeighbors(n, row, src.copyNeighbors(n, row));
+            }
+            finalGraph = graph;
+        }
+        return finalGraph;
     }
 
     public List<Integer> search(double[] query, int pl) {
-        int p = Math.min(pl , finalGraph.get(ep).size());
-        List<Neighbor> retset = new ArrayList<>(pl);
-        for (int i = 0; i < pl; i ++) {
-            retset.add(new Neighbor());
+        float[] q = new float[query.length];
+        for (int i = 0; i < query.length; i ++) {
+            q[i] = (float) query[i];
         }
-        int[] initIds = new int[pl];
-        boolean[] flags = new boolean[nd];
-        int tmp_l = 0;
-        for (; tmp_l < p; tmp_l ++) {
-            initIds[tmp_l] = finalGraph.get(ep).get(tmp_l);
-            flags[initIds[tmp_l]] = true;
-        }
-        while (tmp_l < pl) {
-            int id = random.nextInt() % nd;
-            if (flags[id]) continue;
-            flags[id] = true;
-            initIds[tmp_l] = id;
-            tmp_l ++;
-        }
-
-        for (int i = 0; i < initIds.length;  i ++) {
-            int id = initIds[i];
-            double dist = distance.distance(query, data.get(id));
-            retset.set(i, new Neighbor(id, dist, true));
-        }
-        retset.sort(new Comparator<Neighbor>() {
-            @Override
-            public int compare(Neighbor o1, Neighbor o2) {
-                return o1.compareTo(o2);
+        return search(q, pl);
+    }
+
+    public List<Integer> search(float[] query, int pl) {
+        int[] ids = searchTopK(contexts.get(), query, pl, pl).getIds();
+        List<Integer> res = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            res.add(id);
+        }
+        return res;
+    }
+
+    /**
+     * Search with a list of searchL candidates and return the k nearest of them.
+     */
+    public SearchResult search(float[] query, int k, int searchL) {
+        return searchTopK(contexts.get(), query, k, searchL);
+    }
+
+    /**
+     * Without PQ codes the pool already holds distances on the index's store. With them the
+     * graph is walked on PQ distances and the whole pool is reranked with distances read
+     * from the vector store, which may be memory-mapped. A rerank store, if set, replaces
+     * the index's store for that final pass.
+     */
+    private SearchResult searchTopK(SearchContext ctx, float[] query, int k, int searchL) {
+        int pl = Math.max(k, searchL);
+        boolean rerank = pqCodes != null || rerankData != null;
+        // tombstones still route the walk but must not take result slots, so live nodes
+        // are collected in ctx.results as they are scored
+        IntPredicate admit = deleted.isEmpty() ? null : live;
+        CandidatePool retset = admit == null ? ctx.pool : ctx.results;
+        if (admit != null) {
+            ctx.results.reset(rerank ? pl : k);
+        }
+        if (pqCodes == null) {
+            searchInternal(ctx, query, pl, false, admit);
+            if (rerankData == null) {
+                return topK(retset, k, deleted);
             }
+            return rerank(ctx, retset, query, k, rerankData);
+        }
+        ctx.lut = pqCodes.getQuantizer().lookupTable(query, ctx.lut);
+        ctx.adc = true;
+        try {
+            searchInternal(ctx, query, pl, false, admit);
+        } finally {
+            ctx.adc = false;
+        }
+        return rerank(ctx, retset, query, k, rerankData != null ? rerankData : data);
+    }
+
+    private SearchResult rerank(SearchContext ctx, CandidatePool retset, float[] query, int k, VectorStore store) {
+        ctx.ensureBuffers(retset.size());
+        int n = 0;
+        for (int i = 0; i < retset.size(); i ++) {
+            int id = retset.id(i);
+            if (deleted.get(id)) continue;
+            ctx.bufIds[n] = id;
+            ctx.bufDists[n] = distance.distance(store, id, query);
+            n ++;
+        }
+        ctx.distanceCount += n;
+        Utils.sort(ctx.bufIds, ctx.bufDists, n);
+        int size = Math.min(k, n);
+        return new SearchResult(Arrays.copyOf(ctx.bufIds, size), Arrays.copyOf(ctx.bufDists, size));
+    }
+
+    private static SearchResult topK(CandidatePool retset, int k, BitSet deleted) {
+        int[] ids = new int[Math.min(k, retset.size())];
+        float[] dists = new float[ids.length];
+        int n = 0;
+        for (int i = 0; i < retset.size() && n < ids.length; i ++) {
+            if (deleted.get(retset.id(i))) continue;
+            ids[n] = retset.id(i);
+            dists[n] = retset.distance(i);
+            n ++;
+        }
+        if (n < ids.length) {
+            return new SearchResult(Arrays.copyOf(ids, n), Arrays.copyOf(dists, n));
+        }
+        return new SearchResult(ids, dists);
+    }
+
+    /**
+     * Nearest neighbors among the ids set in filter, see search(float[], int, int, IntPredicate).
+     */
+    public SearchResult search(float[] query, int k, int searchL, BitSet filter) {
+        return searchFiltered(contexts.get(), query, k, searchL, filter::get, filter, filter.cardinality());
+    }
+
+    /**
+     * Nearest neighbors among the ids accepted by filter. The graph is still walked through
+     * nodes the filter rejects, only the result pool is restricted. The share of accepted
+     * ids is estimated from a sample and the search list widened to searchL / share; when
+     * few ids match, or the widened list would cover much of the graph, the matching ids
+     * are scanned exactly instead.
+     */
+    public SearchResult search(float[] query, int k, int searchL, IntPredicate filter) {
+        return searchFiltered(contexts.get(), query, k, searchL, filter, null, -1);
+    }
+
+    /**
+     * Estimated matching ids at or below which filtered search scans them instead of walking the graph.
+     */
+    public void setFilterScanLimit(int filterScanLimit) {
+        this.filterScanLimit = filterScanLimit;
+    }
+
+    private SearchResult searchFiltered(SearchContext ctx, float[] query, int k, int searchL,
+                                        IntPredicate filter, BitSet bits, long matches) {
+        if (k <= 0) {
+            // same as the unfiltered search: nothing asked, nothing returned
+            return new SearchResult(new int[0], new float[0]);
+        }
+        if (matches < 0) {
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            int hits = 0;
+            for (int i = 0; i < FILTER_SAMPLE; i ++) {
+                if (filter.test(rnd.nextInt(nd))) hits ++;
+            }
+            matches = (long) hits * nd / FILTER_SAMPLE;
+        }
+        int pl = Math.max(k, searchL);
+        long wideL = matches == 0 ? Long.MAX_VALUE : (long) Math.ceil((double) pl * nd / matches);
+        if (matches <= filterScanLimit || wideL > nd / 4) {
+            return scanFiltered(ctx, query, k, filter, bits);
+        }
+        boolean rerank = pqCodes != null || rerankData != null;
+        IntPredicate admit = id -> filter.test(id) && !deleted.get(id);
+        for (int searchWidth = (int) wideL; ; searchWidth *= 2) {
+            ctx.results.reset(rerank ? pl : k);
+            if (pqCodes != null) {
+                ctx.lut = pqCodes.getQuantizer().lookupTable(query, ctx.lut);
+                ctx.adc = true;
+            }
+            try {
+                searchInternal(ctx, query, searchWidth, false, admit);
+            } finally {
+                ctx.adc = false;
+            }
+            if (ctx.results.size() >= k) break;
+            // the estimate was too optimistic: widen once more, then give up on the graph
+            if ((long) searchWidth * 2 > nd / 4) {
+                return scanFiltered(ctx, query, k, filter, bits);
+            }
+        }
+        if (!rerank) {
+            return topK(ctx.results, k, deleted);
+        }
+        return rerank(ctx, ctx.results, query, k, rerankData != null ? rerankData : data);
+    }
+
+    /**
+     * Exact scan over the matching ids.
+     */
+    private SearchResult scanFiltered(SearchContext ctx, float[] query, int k, IntPredicate filter, BitSet bits) {
+        VectorStore store = rerankData != null ? rerankData : data;
+        CandidatePool retset = ctx.results;
+        retset.reset(Math.min(k, nd));
+        int id = bits != null ? bits.nextSetBit(0) : 0;
+        while (id >= 0 && id < nd) {
+            if ((bits != null || filter.test(id)) && !deleted.get(id)) {
+                float dist = distance.distance(store, id, query, retset.worst());
+                ctx.distanceCount ++;
+                if (dist < retset.worst()) {
+                    retset.insert(id, dist);
+                }
+            }
+            id = bits != null ? bits.nextSetBit(id + 1) : id + 1;
+        }
+        return topK(retset, k, deleted);
+    }
+
+    /**
+     * Search many queries in parallel on the search pool.
+     * @param k number of results per query
+     * @param pl search list size, at least k
+     */
+    public BatchSearchResult searchBatch(float[][] queries, int k, int pl) {
+        int[][] ids = new int[queries.length][];
+        float[][] dists = new float[queries.length][];
+        LongAdder distanceCount = new LongAdder();
+        int searchL = Math.max(k, pl);
+        long start = System.nanoTime();
+        Utils.parallelFor(searchPool, queries.length, q -> {
+            SearchContext ctx = contexts.get();
+            long before = ctx.distanceCount;
+            SearchResult res = searchTopK(ctx, queries[q], k, searchL);
+            distanceCount.add(ctx.distanceCount - before);
+            ids[q] = res.getIds();
+            dists[q] = res.getDistances();
         });
+        return new BatchSearchResult(ids, dists, System.nanoTime() - start, distanceCount.sum());
+    }
+
+    private float score(SearchContext ctx, float[] query, int id, float upperBound) {
+        if (ctx.adc) {
+            return pqCodes.getQuantizer().distance(pqCodes.getCodes(), id, ctx.lut);
+        }
+        if (ctx.int8Dot != null) {
+            return ctx.int8Dot.dotDistance(id, query, ctx.queryBias);
+        }
+        return distance.distance(data, id, query, upperBound);
+    }
+
+    /**
+     * Greedy best-first search from the navigating node; the candidates are left in ctx.pool.
+     * Only reads shared state, so any number of threads may search at once with their own contexts.
+     * With collect set, every scored node is also recorded in the context's visited list for pruning.
+     */
+    private void searchInternal(SearchContext ctx, float[] query, int pl, boolean collect) {
+        searchInternal(ctx, query, pl, collect, null);
+    }
+
+    /**
+     * @param admit if set, scored nodes it accepts are also offered to ctx.results
+     */
+    private void searchInternal(SearchContext ctx, float[] query, int pl, boolean collect, IntPredicate admit) {
+        CandidatePool results = ctx.results;
+        int poolSize = Math.min(pl, nd);
+        ctx.reset(nd, finalGraph.width(), poolSize);
+        CandidatePool retset = ctx.pool;
+        int[] nbrs = ctx.neighbors;
+        ctx.int8Dot = data instanceof Int8VectorStore && distance instanceof DotDistance ? (Int8VectorStore) data : null;
+        if (ctx.int8Dot != null) {
+            ctx.queryBias = ctx.int8Dot.queryBias(query);
+        }
+        EntryPoints entries = entryPoints;
+        int start = ep;
+        if (!collect && entries.ids.length > 1) {
+            float best = Float.POSITIVE_INFINITY;
+            for (int i = 0; i < entries.ids.length; i ++) {
+                float dist = distance.distance(entries.vectors, i * dim, query, 0, dim, best);
+                if (dist < best) {
+                    best = dist;
+                    start = entries.ids[i];
+                }
+            }
+            ctx.distanceCount += entries.ids.length;
+            if (start != ep) {
+                // the entry is already close: seed with it and its neighbors, random seeds would only add hops
+                ctx.visit(start);
+                float dist = score(ctx, query, start, Float.POSITIVE_INFINITY);
+                ctx.distanceCount ++;
+                if (admit != null && admit.test(start)) results.insert(start, dist);
+                retset.insert(start, dist);
+            }
+        }
+        int degree = finalGraph.copyNeighbors(start, nbrs);
+        for (int i = 0; i < degree && retset.size() < poolSize; i ++) {
+            int id = nbrs[i];
+            if (!ctx.visit(id)) continue;
+            float dist = score(ctx, query, id, Float.POSITIVE_INFINITY);
+            ctx.distanceCount ++;
+            if (collect) ctx.collect(id, dist);
+            if (admit != null && admit.test(id)) results.insert(id, dist);
+            retset.insert(id, dist);
+        }
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        while (start == ep && retset.size() < poolSize) {
+            int id = rnd.nextInt(nd);
+            if (!ctx.visit(id)) continue;
+            float dist = score(ctx, query, id, Float.POSITIVE_INFINITY);
+            ctx.distanceCount ++;
+            if (collect) ctx.collect(id, dist);
+            if (admit != null && admit.test(id)) results.insert(id, dist);
+            retset.insert(id, dist);
+        }
         int k = 0;
-        while (k < pl) {
-            int nk = pl;
-            Neighbor nnk = retset.get(k);
-            if (nnk.flag) {
-                nnk.flag = false;
-                retset.set(k, nnk);
-                int n = nnk.id;
-                for (int id: finalGraph.get(n)) {
-                    if (flags[id]) continue;
-                    flags[id] = true;
-                    double dist = distance.distance(query, data.get(id));
-                    if (dist >= retset.get(pl - 1).distance) continue;
-                    Neighbor nn = new Neighbor(id, dist, true);
-                    int r = insertIntoPool(retset, pl, nn);
+        while (k < retset.size()) {
+            int nk = poolSize;
+            if (retset.isUnexpanded(k)) {
+                retset.markExpanded(k);
+                degree = finalGraph.copyNeighbors(retset.id(k), nbrs);
+                for (int m = 0; m < degree; m ++) {
+                    int id = nbrs[m];
+                    if (!ctx.visit(id)) continue;
+                    ctx.distanceCount ++;
+                    float bound = retset.worst();
+                    if (admit != null) bound = Math.max(bound, results.worst());
+                    float dist;
+                    if (collect) {
+                        dist = score(ctx, query, id, Float.POSITIVE_INFINITY);
+                        ctx.collect(id, dist);
+                    } else {
+                        // pruning needs exact distances, plain search only needs to know it lost
+                        dist = score(ctx, query, id, bound);
+                    }
+                    if (admit != null && dist < results.worst() && admit.test(id)) results.insert(id, dist);
+                    if (dist >= retset.worst()) continue;
+                    int r = retset.insert(id, dist);
                     if (r < nk) nk = r;
                 }
             }
@@ -566,7 +1044,6 @@ public class NsgIndex {
                 ++ k;
             }
         }
-        return retset.stream().map(n -> n.id).collect(Collectors.toList());
     }
 
 }
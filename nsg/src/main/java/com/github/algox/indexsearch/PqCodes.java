@@ -0,0 +1,85 @@
+package com.github.algox.indexsearch;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A trained ProductQuantizer together with the codes of every vector of an index,
+ * m bytes per vector.
+ */
+public class PqCodes {
+    private static final int MAGIC = 0x31515047;
+
+    private final ProductQuantizer quantizer;
+    private byte[] codes;
+    private int size;
+
+    public PqCodes(ProductQuantizer quantizer, byte[] codes) {
+        this.quantizer = quantizer;
+        this.codes = codes;
+        this.size = codes.length / quantizer.m();
+    }
+
+    /**
+     * Train a quantizer on a sample of data and encode all of it.
+     */
+    public static PqCodes build(VectorStore data, int m, Distance distance, int sampleSize, int iterations,
+                                ForkJoinPool pool) {
+        ProductQuantizer quantizer = ProductQuantizer.train(data, m, distance, sampleSize, iterations, 1234L, pool);
+        return new PqCodes(quantizer, quantizer.encode(data, pool));
+    }
+
+    public ProductQuantizer getQuantizer() {
+        return quantizer;
+    }
+
+    /**
+     * The codes, m bytes per vector; the array may be longer than size() * m.
+     */
+    public byte[] getCodes() {
+        return codes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Encode and append one more vector.
+     * @return its id
+     */
+    public int add(float[] v) {
+        int m = quantizer.m();
+        if ((long) (size + 1) * m > codes.length) {
+            long cap = Math.min(((long) size + (size >> 1) + 16) * m, Integer.MAX_VALUE - 8);
+            if (cap < (long) (size + 1) * m) {
+                throw new IllegalArgumentException("too many codes: " + (size + 1) + " x " + m);
+            }
+            codes = Arrays.copyOf(codes, (int) cap);
+        }
+        quantizer.encode(v, codes, size * m);
+        return size ++;
+    }
+
+    public void save(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            quantizer.write(out);
+            out.writeInt(size * quantizer.m());
+            out.write(codes, 0, size * quantizer.m());
+        }
+    }
+
+    public static PqCodes load(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("not a PQ code file: " + path);
+            }
+            ProductQuantizer quantizer = ProductQuantizer.read(in);
+            byte[] codes = new byte[in.readInt()];
+            in.readFully(codes);
+            return new PqCodes(quantizer, codes);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.github.algox.indexsearch;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Product quantizer: the vector is cut into m sub-vectors of dim / m floats and
+ * each sub-vector is replaced by the id of its nearest centroid, one byte per
+ * subspace. Distances to a query are then m table lookups (asymmetric distance
+ * computation) into a per-query table built by lookupTable().
+ */
+public class ProductQuantizer {
+    public static final int KSUB = 256;
+
+    private final int dim;
+    private final int m;
+    private final int dsub;
+    private final int ksub;
+    private final boolean innerProduct;
+    /** m * ksub * dsub floats, subspace major */
+    private final float[] codebooks;
+
+    private ProductQuantizer(int dim, int m, int ksub, boolean innerProduct, float[] codebooks) {
+        this.dim = dim;
+        this.m = m;
+        this.dsub = dim / m;
+        this.ksub = ksub;
+        this.innerProduct = innerProduct;
+        this.codebooks = codebooks;
+    }
+
+    /**
+     * Learn the codebooks with k-means on a random sample of the data, one subspace per task.
+     * @param distance CommonDistance (L2) or DotDistance (inner product)
+     */
+    public static ProductQuantizer train(VectorStore data, int m, Distance distance, int sampleSize,
+                                         int iterations, long seed, ForkJoinPool pool) {
+        int dim = data.dim();
+        if (m <= 0 || dim % m != 0) {
+            throw new IllegalArgumentException("dim " + dim + " is not divisible by m = " + m);
+        }
+        boolean innerProduct = isInnerProduct(distance);
+        int n = Math.min(sampleSize, data.size());
+        int ksub = Math.min(KSUB, n);
+        int dsub = dim / m;
+        Random random = new Random(seed);
+        float[] sample = new float[n * dim];
+        float[] row = new float[dim];
+        for (int i = 0; i < n; i ++) {
+            int id = n == data.size() ? i : random.nextInt(data.size());
+            System.arraycopy(data.get(id, row), 0, sample, i * dim, dim);
+        }
+        float[] codebooks = new float[m * ksub * dsub];
+        Utils.parallelFor(pool, m, j -> {
+            float[] sub = new float[n * dsub];
+            for (int i = 0; i < n; i ++) {
+                System.arraycopy(sample, i * dim + j * dsub, sub, i * dsub, dsub);
+            }
+            float[] centroids = kmeans(sub, n, dsub, ksub, iterations, new Random(seed + j));
+            System.arraycopy(centroids, 0, codebooks, j * ksub * dsub, ksub * dsub);
+        });
+        return new ProductQuantizer(dim, m, ksub, innerProduct, codebooks);
+    }
+
+    private static boolean isInnerProduct(Distance distance) {
+        if (distance instanceof DotDistance) return true;
+        if (distance instanceof CommonDistance) return false;
+        throw new IllegalArgumentException("product quantization supports L2 and inner product only, not "
+                + distance.getClass().getSimpleName());
+    }
+
+    /**
+     * Lloyd's k-means on n points of d floats, seeded with k distinct random points.
+     * @return k * d centroid coordinates
+     */
+    static float[] kmeans(float[] points, int n, int d, int k, int iterations, Random random) {
+        float[] centroids = new float[k * d];
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i ++) {
+            perm[i] = i;
+        }
+        for (int i = 0; i < k; i ++) {
+            int j = i + random.nextInt(n - i);
+            int t = perm[i];
+            perm[i] = perm[j];
+            perm[j] = t;
+            System.arraycopy(points, perm[i] * d, centroids, i * d, d);
+        }
+        int[] assign = new int[n];
+        int[] counts = new int[k];
+        double[] sums = new double[k * d];
+        for (int it = 0; it < iterations; it ++) {
+            for (int i = 0; i < n; i ++) {
+                assign[i] = nearest(points, i * d, centroids, 0, k, d);
+            }
+            Arrays.fill(counts, 0);
+            Arrays.fill(sums, 0);
+            for (int i = 0; i < n; i ++) {
+                int c = assign[i];
+                counts[c] ++;
+                for (int t = 0; t < d; t ++) {
+                    sums[c * d + t] += points[i * d + t];
+                }
+            }
+            for (int c = 0; c < k; c ++) {
+                if (counts[c] == 0) {
+                    // empty cluster: restart it on a random point
+                    System.arraycopy(points, random.nextInt(n) * d, centroids, c * d, d);
+                    continue;
+                }
+                for (int t = 0; t < d; t ++) {
+                    centroids[c * d + t] = (float) (sums[c * d + t] / counts[c]);
+                }
+            }
+        }
+        return centroids;
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    public int m() {
+        return m;
+    }
+
+    public int ksub() {
+        return ksub;
+    }
+
+    /**
+     * Encode v into out[off, off + m).
+     */
+    public void encode(float[] v, byte[] out, int off) {
+        for (int j = 0; j < m; j ++) {
+            out[off + j] = (byte) nearest(v, j * dsub, codebooks, j * ksub, ksub, dsub);
+        }
+    }
+
+    private static int nearest(float[] v, int off, float[] centroids, int base, int k, int d) {
+        int best = 0;
+        float bestDist = Float.MAX_VALUE;
+        for (int c = 0; c < k; c ++) {
+            int coff = (base + c) * d;
+            float dist = 0;
+            for (int t = 0; t < d; t ++) {
+                float diff = v[off + t] - centroids[coff + t];
+                dist += diff * diff;
+            }
+            if (dist < bestDist) {
+                bestDist = dist;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Encode every row of data, m bytes per row.
+     */
+    public byte[] encode(VectorStore data, ForkJoinPool pool) {
+        long cap = (long) data.size() * m;
+        if (cap > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many codes: " + data.size() + " x " + m);
+        }
+        byte[] codes = new byte[(int) cap];
+        ThreadLocal<float[]> rows = ThreadLocal.withInitial(() -> new float[dim]);
+        Utils.parallelFor(pool, data.size(), i -> encode(data.get(i, rows.get()), codes, i * m));
+        return codes;
+    }
+
+    /**
+     * Fill table (m * ksub floats) with the distance from each query sub-vector
+     * to every centroid of its subspace.
+     */
+    public float[] lookupTable(float[] query, float[] table) {
+        if (table == null || table.length < m * ksub) {
+            table = new float[m * ksub];
+        }
+        for (int j = 0; j < m; j ++) {
+            int qoff = j * dsub;
+            for (int c = 0; c < ksub; c ++) {
+                int coff = (j * ksub + c) * dsub;
+                float v = 0;
+                if (innerProduct) {
+                    for (int t = 0; t < dsub; t ++) {
+                        v += query[qoff + t] * codebooks[coff + t];
+                    }
+                } else {
+                    for (int t = 0; t < dsub; t ++) {
+                        float diff = query[qoff + t] - codebooks[coff + t];
+                        v += diff * diff;
+                    }
+                }
+                table[j * ksub + c] = v;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Approximate distance from the query of table to the vector coded at codes[id * m].
+     */
+    public float distance(byte[] codes, int id, float[] table) {
+        int off = id * m;
+        float v = 0;
+        for (int j = 0; j < m; j ++) {
+            v += table[j * ksub + (codes[off + j] & 0xff)];
+        }
+        return innerProduct ? 1 - v : v;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(dim);
+        out.writeInt(m);
+        out.writeInt(ksub);
+        out.writeBoolean(innerProduct);
+        for (float v : codebooks) {
+            out.writeFloat(v);
+        }
+    }
+
+    static ProductQuantizer read(DataInputStream in) throws IOException {
+        int dim = in.readInt();
+        int m = in.readInt();
+        int ksub = in.readInt();
+        boolean innerProduct = in.readBoolean();
+        float[] codebooks = new float[m * ksub * (dim / m)];
+        for (int i = 0; i < codebooks.length; i ++) {
+            codebooks[i] = in.readFloat();
+        }
+        return new ProductQuantizer(dim, m, ksub, innerProduct, codebooks);
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.algox.indexsearch;
+
+/**
+ * 8-bit scalar quantizer: x[j] is stored as round((x[j] - min[j]) / step), an unsigned byte.
+ * The offset min[j] is per dimension, the step is shared by all dimensions (the widest
+ * per-dimension range / 255) so distances between two codes only need integer arithmetic
+ * and one final scaling, see Int8VectorStore.
+ */
+public class ScalarQuantizer {
+    private final int dim;
+    private final float[] min;
+    private final float step;
+
+    public ScalarQuantizer(float[] min, float step) {
+        this.dim = min.length;
+        this.min = min;
+        this.step = step;
+    }
+
+    /**
+     * Take the per-dimension min/max of every row of data.
+     */
+    public static ScalarQuantizer train(VectorStore data) {
+        int dim = data.dim();
+        float[] min = new float[dim];
+        float[] max = new float[dim];
+        float[] row = new float[dim];
+        for (int j = 0; j < dim; j ++) {
+            min[j] = Float.POSITIVE_INFINITY;
+            max[j] = Float.NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i < data.size(); i ++) {
+            data.get(i, row);
+            for (int j = 0; j < dim; j ++) {
+                if (row[j] < min[j]) min[j] = row[j];
+                if (row[j] > max[j]) max[j] = row[j];
+            }
+        }
+        float range = 0;
+        for (int j = 0; j < dim; j ++) {
+            if (data.size() == 0) min[j] = 0;
+            range = Math.max(range, max[j] - min[j]);
+        }
+        return new ScalarQuantizer(min, range > 0 ? range / 255 : 1);
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    public float[] getMin() {
+        return min;
+    }
+
+    public float getStep() {
+        return step;
+    }
+
+    /**
+     * Encode v into out[off, off + dim), clamping values outside the trained range.
+     */
+    public void encode(float[] v, byte[] out, int off) {
+        for (int j = 0; j < dim; j ++) {
+            int c = Math.round((v[j] - min[j]) / step);
+            out[off + j] = (byte) (c < 0 ? 0 : c > 255 ? 255 : c);
+        }
+    }
+
+    public float[] decode(byte[] codes, int off, float[] dst) {
+        for (int j = 0; j < dim; j ++) {
+            dst[j] = min[j] + step * (codes[off + j] & 0xff);
+        }
+        return dst;
+    }
+
+    /**
+     * Squared L2 between two code rows in code units; multiply by step * step for the real distance.
+     */
+    public static int l2(byte[] codes, int offset1, int offset2, int dim) {
+        int s0 = 0;
+        int s1 = 0;
+        int s2 = 0;
+        int s3 = 0;
+        int i = 0;
+        for (int end = dim & ~3; i < end; i += 4) {
+            int d0 = (codes[offset1 + i] & 0xff) - (codes[offset2 + i] & 0xff);
+            int d1 = (codes[offset1 + i + 1] & 0xff) - (codes[offset2 + i + 1] & 0xff);
+            int d2 = (codes[offset1 + i + 2] & 0xff) - (codes[offset2 + i + 2] & 0xff);
+            int d3 = (codes[offset1 + i + 3] & 0xff) - (codes[offset2 + i + 3] & 0xff);
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < dim; i ++) {
+            int d = (codes[offset1 + i] & 0xff) - (codes[offset2 + i] & 0xff);
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Inner product of two code rows in code units.
+     */
+    public static int dot(byte[] codes, int offset1, int offset2, int dim) {
+        int s0 = 0;
+        int s1 = 0;
+        int s2 = 0;
+        int s3 = 0;
+        int i = 0;
+        for (int end = dim & ~3; i < end; i += 4) {
+            s0 += (codes[offset1 + i] & 0xff) * (codes[offset2 + i] & 0xff);
+            s1 += (codes[offset1 + i + 1] & 0xff) * (codes[offset2 + i + 1] & 0xff);
+            s2 += (codes[offset1 + i + 2] & 0xff) * (codes[offset2 + i + 2] & 0xff);
+            s3 += (codes[offset1 + i + 3] & 0xff) * (codes[offset2 + i + 3] & 0xff);
+        }
+        for (; i < dim; i ++) {
+            s0 += (codes[offset1 + i] & 0xff) * (codes[offset2 + i] & 0xff);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
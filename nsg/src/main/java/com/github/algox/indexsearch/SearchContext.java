@@ -0,0 +1,95 @@
+package com.github.algox.indexsearch;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread scratch state for graph search, reused across queries so a
+ * search does not allocate. Visited marks are epoch stamps: bumping the
+ * epoch clears the whole table in O(1).
+ */
+public class SearchContext {
+    private int[] visited = new int[0];
+    private int epoch;
+    final CandidatePool pool = new CandidatePool(0);
+    /** matching candidates of a filtered search */
+    final CandidatePool results = new CandidatePool(0);
+    int[] neighbors = new int[0];
+    long distanceCount;
+    int[] visitedIds = new int[16];
+    float[] visitedDists = new float[16];
+    int visitedCount;
+    int[] bufIds = new int[0];
+    float[] bufDists = new float[0];
+    int[] tmpIds = new int[0];
+    float[] tmpDists = new float[0];
+    private float[] row = new float[0];
+    float[] lut;
+    boolean adc;
+    // set when the walk scores int8 codes by inner product, with the query's share of it
+    Int8VectorStore int8Dot;
+    float queryBias;
+
+    void reset(int nd, int width, int poolSize) {
+        if (visited.length < nd) {
+            // grow by half at least, an index growing one add() at a time must not reallocate per search
+            visited = new int[Math.max(nd, visited.length + (visited.length >> 1))];
+            epoch = 0;
+        }
+        if (++ epoch == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            epoch = 1;
+        }
+        if (neighbors.length < width) {
+            neighbors = new int[width];
+        }
+        pool.reset(poolSize);
+        visitedCount = 0;
+    }
+
+    /**
+     * Record a scored node, for build passes that prune over everything the search touched.
+     */
+    void collect(int id, float dist) {
+        if (visitedCount == visitedIds.length) {
+            visitedIds = Arrays.copyOf(visitedIds, visitedCount * 2);
+            visitedDists = Arrays.copyOf(visitedDists, visitedCount * 2);
+        }
+        visitedIds[visitedCount] = id;
+        visitedDists[visitedCount] = dist;
+        visitedCount ++;
+    }
+
+    void ensureBuffers(int size) {
+        if (bufIds.length < size) {
+            bufIds = new int[size];
+            bufDists = new float[size];
+            tmpIds = new int[size];
+            tmpDists = new float[size];
+        }
+    }
+
+    float[] row(int dim) {
+        if (row.length < dim) {
+            row = new float[dim];
+        }
+        return row;
+    }
+
+    /**
+     * Mark id as visited.
+     * @return false if it was already visited since the last reset
+     */
+    boolean visit(int id) {
+        if (visited[id] == epoch) return false;
+        visited[id] = epoch;
+        return true;
+    }
+
+    boolean isVisited(int id) {
+        return visited[id] == epoch;
+    }
+
+    public long getDistanceCount() {
+        return distanceCount;
+    }
+}
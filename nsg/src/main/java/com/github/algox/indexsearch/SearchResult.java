@@ -0,0 +1,26 @@
+package com.github.algox.indexsearch;
+
+/**
+ * Nearest neighbors of one query, nearest first.
+ */
+public class SearchResult {
+    private final int[] ids;
+    private final float[] distances;
+
+    public SearchResult(int[] ids, float[] distances) {
+        this.ids = ids;
+        this.distances = distances;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int[] getIds() {
+        return ids;
+    }
+
+    public float[] getDistances() {
+        return distances;
+    }
+}
@@ -5,12 +5,21 @@ import org.nd4j.linalg.api.rng.Random;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Utils {
+    /**
+     * Append size distinct ids in [0, n) to addr. floorMod keeps them non-negative:
+     * nextInt() % n is negative for half of all draws.
+     */
     public static void genRandom(Random random, List<Integer> addr, int size, int n) {
+        int bound = Math.max(n - size, 1);
         for (int i = 0; i < size; ++ i) {
-            addr.add(random.nextInt() % (n - size));
+            addr.add(Math.floorMod(random.nextInt(), bound));
         }
         addr.sort(new Comparator<Integer>() {
             @Override
@@ -23,7 +32,7 @@ public class Utils {
                 addr.set(i, addr.get(i -1) + 1);
             }
         }
-        int off = random.nextInt() % n;
+        int off = Math.floorMod(random.nextInt(), n);
         for (int i = 0; i < size; ++ i) {
             addr.set(i, (addr.get(i) + off) % n);
         }
@@ -39,4 +48,81 @@ public class Utils {
         neighbors.addAll(list.stream().filter(n -> !set.contains(n.id)).collect(Collectors.toList()));
         return neighbors;
     }
+
+    /**
+     * Run body for every index in [0, n) on the given pool and wait for all of them.
+     */
+    public static void parallelFor(ForkJoinPool pool, int n, IntConsumer body) {
+        try {
+            pool.submit(() -> IntStream.range(0, n).parallel().forEach(body)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Sort the first n entries of two parallel arrays by ascending distance.
+     */
+    public static void sort(int[] ids, float[] dists, int n) {
+        quickSort(ids, dists, 0, n - 1);
+    }
+
+    private static void quickSort(int[] ids, float[] dists, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            if (dists[mid] < dists[lo]) swap(ids, dists, mid, lo);
+            if (dists[hi] < dists[lo]) swap(ids, dists, hi, lo);
+            if (dists[hi] < dists[mid]) swap(ids, dists, hi, mid);
+            float pivot = dists[mid];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (dists[i] < pivot) i ++;
+                while (dists[j] > pivot) j --;
+                if (i <= j) {
+                    swap(ids, dists, i, j);
+                    i ++;
+                    j --;
+                }
+            }
+            if (j - lo < hi - i) {
+                quickSort(ids, dists, lo, j);
+                lo = i;
+            } else {
+                quickSort(ids, dists, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i ++) {
+            int id = ids[i];
+            float d = dists[i];
+            int j = i - 1;
+            while (j >= lo && dists[j] > d) {
+                ids[j + 1] = ids[j];
+                dists[j + 1] = dists[j];
+                j --;
+            }
+            ids[j + 1] = id;
+            dists[j + 1] = d;
+        }
+    }
+
+    private static void swap(int[] ids, float[] dists, int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        float d = dists[a];
+        dists[a] = dists[b];
+        dists[b] = d;
+    }
 }
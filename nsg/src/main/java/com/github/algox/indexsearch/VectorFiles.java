@@ -0,0 +1,114 @@
+package com.github.algox.indexsearch;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Loaders for the TEXMEX vector formats and raw float32 matrices. All of them
+ * are little endian:
+ * <ul>
+ *     <li>fvecs: per row an int dim followed by dim float32</li>
+ *     <li>bvecs: per row an int dim followed by dim unsigned bytes</li>
+ *     <li>ivecs: per row an int dim followed by dim int32, used for ground truth</li>
+ *     <li>raw float32: rows of dim float32 without any header</li>
+ * </ul>
+ * The map* methods return zero-copy stores backed by MappedByteBuffer.
+ */
+public class VectorFiles {
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    public static MappedVectorStore mapFvecs(String path) throws IOException {
+        return map(path, 4, readDim(path), true, false);
+    }
+
+    public static MappedVectorStore mapBvecs(String path) throws IOException {
+        return map(path, 1, readDim(path), true, true);
+    }
+
+    public static MappedVectorStore mapFloat32(String path, int dim) throws IOException {
+        return map(path, 4, dim, false, false);
+    }
+
+    /**
+     * Copy an fvecs file into a heap FloatVectorStore.
+     */
+    public static FloatVectorStore readFvecs(String path) throws IOException {
+        MappedVectorStore mapped = mapFvecs(path);
+        FloatVectorStore store = new FloatVectorStore(mapped.size(), mapped.dim());
+        float[] row = new float[mapped.dim()];
+        for (int i = 0; i < mapped.size(); i ++) {
+            store.set(i, mapped.get(i, row));
+        }
+        return store;
+    }
+
+    /**
+     * Read an ivecs file, typically the ground-truth neighbor ids of each query.
+     */
+    public static int[][] readIvecs(String path) throws IOException {
+        int dim = readDim(path);
+        long rowBytes = 4L + 4L * dim;
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            int rows = rowCount(path, channel.size(), rowBytes);
+            int[][] res = new int[rows][dim];
+            int rowsPerChunk = (int) Math.max(1, CHUNK_BYTES / rowBytes);
+            for (int start = 0; start < rows; start += rowsPerChunk) {
+                int n = Math.min(rowsPerChunk, rows - start);
+                IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, start * rowBytes, n * rowBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                for (int i = 0; i < n; i ++) {
+                    ints.get();
+                    ints.get(res[start + i]);
+                }
+            }
+            return res;
+        }
+    }
+
+    private static int readDim(String path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            if (file.length() < 4) {
+                throw new IOException("empty vector file: " + path);
+            }
+            int dim = Integer.reverseBytes(file.readInt());
+            if (dim <= 0) {
+                throw new IOException("bad dimension " + dim + " in " + path);
+            }
+            return dim;
+        }
+    }
+
+    private static int rowCount(String path, long fileSize, long rowBytes) throws IOException {
+        if (fileSize % rowBytes != 0) {
+            throw new IOException("size of " + path + " is not a multiple of the row size " + rowBytes);
+        }
+        long rows = fileSize / rowBytes;
+        if (rows > Integer.MAX_VALUE) {
+            throw new IOException("too many rows in " + path);
+        }
+        return (int) rows;
+    }
+
+    private static MappedVectorStore map(String path, int elementBytes, int dim, boolean header, boolean bytes) throws IOException {
+        int headerBytes = header ? 4 : 0;
+        long rowBytes = headerBytes + (long) elementBytes * dim;
+        try (RandomAccessFile file = new RandomAccessFile(path, "r");
+             FileChannel channel = file.getChannel()) {
+            int rows = rowCount(path, channel.size(), rowBytes);
+            int rowsPerChunk = (int) Math.max(1, Math.min(Math.max(rows, 1), CHUNK_BYTES / rowBytes));
+            int chunkCount = (rows + rowsPerChunk - 1) / rowsPerChunk;
+            ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i ++) {
+                long n = Math.min(rowsPerChunk, rows - (long) i * rowsPerChunk);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, (long) i * rowsPerChunk * rowBytes, n * rowBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new MappedVectorStore(chunks, rowsPerChunk, (int) rowBytes, headerBytes, rows, dim, bytes);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.algox.indexsearch;
+
+/**
+ * Dense float32 vectors addressed by row id.
+ */
+public interface VectorStore {
+    int size();
+
+    int dim();
+
+    /**
+     * Copy row id into dst and return dst.
+     */
+    float[] get(int id, float[] dst);
+
+    float distance(Distance distance, int id, float[] query);
+
+    /**
+     * Bounded distance, see Distance#distance(float[], int, float[], int, int, float).
+     */
+    float distance(Distance distance, int id, float[] query, float upperBound);
+
+    float distance(Distance distance, int a, int b);
+}
@@ -0,0 +1,72 @@
+package com.github.algox.test;
+
+import com.github.algox.indexsearch.GraphIO;
+import com.github.algox.indexsearch.GraphStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestGraphIO {
+    public static void main(String[] args) throws IOException {
+        File file = File.createTempFile("graph", ".bin");
+        file.deleteOnExit();
+        String path = file.getPath();
+
+        Random random = new Random(3);
+        GraphStore graph = new GraphStore(1000, 12);
+        for (int n = 0; n < graph.size(); n++) {
+            int degree = random.nextInt(13);
+            for (int i = 0; i < degree; i++) {
+                graph.add(n, random.nextInt(graph.size()));
+            }
+        }
+        int[] deleted = {3, 17, 999};
+        int[] entryPoints = {5, 500};
+        GraphIO.write(graph, 42, deleted, entryPoints, path);
+        check(GraphIO.isBinary(path), "not recognized as a binary graph");
+
+        for (boolean mapped : new boolean[] {false, true}) {
+            GraphIO.GraphFile read = mapped ? GraphIO.map(path, true) : GraphIO.read(path, true);
+            check(read.version == GraphIO.VERSION, "version " + read.version);
+            check(read.ep == 42, "ep " + read.ep);
+            check(Arrays.equals(read.deleted, deleted), "deleted " + Arrays.toString(read.deleted));
+            check(Arrays.equals(read.entryPoints, entryPoints), "entry points " + Arrays.toString(read.entryPoints));
+            check(read.graph.size() == graph.size(), "size " + read.graph.size());
+            for (int n = 0; n < graph.size(); n++) {
+                check(Arrays.equals(read.graph.neighbors(n), graph.neighbors(n)), "row " + n + " differs");
+            }
+        }
+
+        // rewrite the file while the old version is still mapped
+        GraphIO.GraphFile old = GraphIO.map(path, false);
+        GraphIO.write(new GraphStore(2, 1), -1, path);
+        check(Arrays.equals(old.graph.neighbors(999), graph.neighbors(999)), "mapped file changed under its reader");
+        check(GraphIO.read(path, true).graph.size() == 2, "rewrite lost");
+
+        GraphIO.write(graph, 42, deleted, entryPoints, path);
+        try (RandomAccessFile raw = new RandomAccessFile(path, "rw")) {
+            long offset = GraphIO.HEADER_BYTES + 4 * 13 * 10 + 4;
+            raw.seek(offset);
+            int b = raw.read();
+            raw.seek(offset);
+            raw.write(b ^ 1);
+        }
+        GraphIO.read(path, false);
+        try {
+            GraphIO.read(path, true);
+            throw new IllegalStateException("corrupted edge section passed the checksum");
+        } catch (IOException e) {
+            check(e.getMessage().contains("checksum"), e.getMessage());
+        }
+        System.out.println("ok");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
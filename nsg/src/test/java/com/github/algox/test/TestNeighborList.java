@@ -0,0 +1,173 @@
+package com.github.algox.test;
+
+import com.github.algox.graph.Neighbor;
+import com.github.algox.graph.NeighborList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TestNeighborList {
+    public static void main(String[] args) throws Exception {
+        topK();
+        duplicates();
+        commons();
+        concurrent();
+        System.out.println("ok");
+    }
+
+    /**
+     * The list must keep the same neighbors as a bounded min-heap, most similar first.
+     */
+    private static void topK() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            int capacity = 1 + random.nextInt(20);
+            NeighborList list = new NeighborList(capacity);
+            PriorityQueue<Neighbor> heap = new PriorityQueue<>(new Comparator<Neighbor>() {
+                @Override
+                public int compare(Neighbor a, Neighbor b) {
+                    return Double.compare(a.getSimilarity(), b.getSimilarity());
+                }
+            });
+            for (int i = 0; i < 500; i++) {
+                Neighbor<Integer> neighbor = new Neighbor<>(i, random.nextDouble());
+                list.offer(neighbor);
+                heap.offer(neighbor);
+                if (heap.size() > capacity) {
+                    heap.poll();
+                }
+            }
+            List<Neighbor> expected = new ArrayList<>();
+            while (!heap.isEmpty()) {
+                expected.add(0, heap.poll());
+            }
+            List<Neighbor> actual = new ArrayList<>(list);
+            check(actual.equals(expected), "top " + capacity + ": " + actual + " != " + expected);
+            check(list.peek() == expected.get(expected.size() - 1), "peek is not the least similar");
+            check(list.best() == expected.get(0), "best is not the most similar");
+        }
+    }
+
+    private static void duplicates() {
+        NeighborList list = new NeighborList(3);
+        check(list.offer(new Neighbor<>("a", 0.5)), "first offer rejected");
+        check(!list.offer(new Neighbor<>("a", 0.9)), "same node added twice");
+        list.offer(new Neighbor<>("b", 0.4));
+        list.offer(new Neighbor<>("c", 0.3));
+        check(!list.offer(new Neighbor<>("d", 0.1)), "full list took a less similar neighbor");
+        check(list.offer(new Neighbor<>("e", 0.45)), "full list refused a more similar neighbor");
+        check(!list.containsNode("c") && list.size() == 3, "least similar neighbor not dropped");
+        check(list.removeNode("a") && !list.containsNode("a") && list.size() == 2, "removeNode failed");
+        NeighborList unbounded = new NeighborList(0);
+        unbounded.addAll(sample(1000));
+        check(unbounded.size() == 1000, "unbounded list holds " + unbounded.size());
+    }
+
+    private static void commons() {
+        NeighborList a = new NeighborList(10);
+        NeighborList b = new NeighborList(10);
+        a.addAll(sample(10));
+        List<Neighbor> half = new ArrayList<>(sample(10)).subList(0, 5);
+        b.addAll(half);
+        check(a.countCommons(b) == 5, "countCommons " + a.countCommons(b));
+        check(a.countCommonNodes(b) == 5, "countCommonNodes " + a.countCommonNodes(b));
+    }
+
+    /**
+     * Writers race on one list while readers check that every snapshot is sorted, bounded
+     * and free of duplicates. The final list must hold the best of everything offered.
+     */
+    private static void concurrent() throws InterruptedException {
+        final int capacity = 16;
+        final int writers = 4;
+        final int perWriter = 20000;
+        final NeighborList list = new NeighborList(capacity);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final double[] similarities = new double[writers * perWriter];
+        Random random = new Random(7);
+        for (int i = 0; i < similarities.length; i++) {
+            similarities[i] = random.nextDouble();
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final int first = w * perWriter;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = first; i < first + perWriter; i++) {
+                        list.offer(new Neighbor<>(i, similarities[i]));
+                    }
+                }
+            }));
+        }
+        final Thread[] writing = threads.toArray(new Thread[0]);
+        for (int r = 0; r < 2; r++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (alive(writing)) {
+                        double last = Double.POSITIVE_INFINITY;
+                        Set<Object> seen = new HashSet<>();
+                        int count = 0;
+                        for (Neighbor n : list) {
+                            if (n.getSimilarity() > last || !seen.add(n.getNode())) {
+                                failure.compareAndSet(null, "unsorted or duplicate snapshot");
+                            }
+                            last = n.getSimilarity();
+                            count++;
+                        }
+                        if (count > capacity) {
+                            failure.compareAndSet(null, "snapshot of " + count + " neighbors");
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        check(failure.get() == null, failure.get());
+
+        double[] sorted = similarities.clone();
+        Arrays.sort(sorted);
+        int i = sorted.length - 1;
+        for (Neighbor n : list) {
+            check(n.getSimilarity() == sorted[i--], "lost an update: " + n);
+        }
+        check(list.size() == capacity, "size " + list.size());
+    }
+
+    private static boolean alive(Thread[] threads) {
+        for (Thread t : threads) {
+            if (t.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Neighbor> sample(int n) {
+        List<Neighbor> neighbors = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            neighbors.add(new Neighbor<>(i, 1.0 / (i + 1)));
+        }
+        return neighbors;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.algox.test;
+
+import com.github.algox.commons.SimilarityInterface;
+import com.github.algox.graph.Graph;
+import com.github.algox.graph.Neighbor;
+import com.github.algox.graph.NeighborList;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class TestNodeIds {
+    public static void main(String[] args) {
+        Graph<Integer> graph = new Graph<>(5);
+        graph.setSimilarity(new SimilarityInterface<Integer>() {
+            @Override
+            public double similarity(Integer a, Integer b) {
+                return 1.0 / (1 + Math.abs(a - b));
+            }
+        });
+        for (int i = 0; i < 100; i++) {
+            check(graph.add(i) == i, "ids are not handed out densely");
+        }
+
+        int removedId = graph.getId(42);
+        graph.fastRemove(42);
+        check(graph.getId(42) == -1 && graph.getNode(removedId) == null, "removed node still registered");
+        check(!graph.containsKey(42) && graph.size() == 99, "size " + graph.size());
+        for (Integer node : graph.getNodes()) {
+            NeighborList neighbors = graph.getNeighbors(node);
+            for (Neighbor neighbor : neighbors) {
+                check(!neighbor.getNode().equals(42), node + " still points to the removed node");
+            }
+        }
+
+        check(graph.add(1000) == removedId, "id of the removed node not reused");
+        check(graph.getNode(removedId) == 1000 && graph.getId(1000) == removedId, "reused id not bound to the new node");
+        check(graph.add(1001) == 100, "fresh id after the free list is empty");
+
+        // removals and additions in any order keep ids unique and below the peak size
+        for (int round = 0; round < 500; round++) {
+            Integer node = graph.getRandomNode();
+            graph.fastRemove(node);
+            graph.fastAdd(2000 + round);
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (Integer node : graph.getNodes()) {
+            int id = graph.getId(node);
+            check(id >= 0 && id <= 100 && ids.add(id), "bad id " + id + " for " + node);
+            check(graph.getNode(id).equals(node), "id " + id + " maps to " + graph.getNode(id));
+        }
+        check(ids.size() == graph.size() && graph.size() == 101, "size " + graph.size());
+        System.out.println("ok");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.algox.test;
+
+import com.github.algox.indexsearch.BatchSearchResult;
+import com.github.algox.indexsearch.CommonDistance;
+import com.github.algox.indexsearch.Distance;
+import com.github.algox.indexsearch.FloatVectorStore;
+import com.github.algox.indexsearch.GraphIO;
+import com.github.algox.indexsearch.GraphStore;
+import com.github.algox.indexsearch.NsgIndex;
+import com.github.algox.indexsearch.SearchResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+public class TestNsgDelete {
+    private static final int N = 1500;
+    private static final int ADDED = 300;
+    private static final int DIM = 8;
+    private static final int K = 10;
+
+    public static void main(String[] args) throws IOException {
+        Random random = new Random(17);
+        FloatVectorStore data = new FloatVectorStore(N, DIM);
+        for (int i = 0; i < N; i++) {
+            data.set(i, randomVector(random));
+        }
+        Distance distance = new CommonDistance();
+        NsgIndex index = new NsgIndex(data);
+        index.setDistance(distance);
+        index.setL(40);
+        index.setR(24);
+        index.setC(200);
+        index.build(exactKnn(data, distance, 20));
+        for (int i = 0; i < ADDED; i++) {
+            check(index.add(randomVector(random)) == N + i, "added ids are not sequential");
+        }
+        check(data.size() == N + ADDED, "store size " + data.size());
+
+        // tombstone everything around the query, more than the search list holds
+        float[] query = randomVector(random);
+        List<Integer> nearest = byDistance(data, distance, query, new HashSet<Integer>());
+        Set<Integer> deleted = new HashSet<>();
+        for (int i = 0; i < 60; i++) {
+            index.delete(nearest.get(i));
+            deleted.add(nearest.get(i));
+        }
+        for (int i = 0; i < 200; i++) {
+            int id = random.nextInt(data.size());
+            index.delete(id);
+            deleted.add(id);
+        }
+        check(index.getDeletedCount() == deleted.size(), "deleted count " + index.getDeletedCount());
+
+        checkSearch(index, data, distance, query, deleted, "tombstoned");
+        BatchSearchResult batch = index.searchBatch(new float[][] {query}, K, 20);
+        checkLive(batch.getIds()[0], deleted, "tombstoned batch");
+
+        index.consolidate();
+        checkSearch(index, data, distance, query, deleted, "consolidated");
+
+        File file = File.createTempFile("nsg", ".bin");
+        file.deleteOnExit();
+        index.save(file.getPath());
+        GraphStore graph = GraphIO.read(file.getPath(), true).graph;
+        for (int n = 0; n < graph.size(); n++) {
+            if (deleted.contains(n)) {
+                check(graph.degree(n) == 0, "deleted node " + n + " kept its edges");
+                continue;
+            }
+            for (int i = 0; i < graph.degree(n); i++) {
+                check(!deleted.contains(graph.get(n, i)), n + " still points to deleted " + graph.get(n, i));
+            }
+        }
+        System.out.println("ok");
+    }
+
+    /**
+     * k live results, and most of the exact live top k among them.
+     */
+    private static void checkSearch(NsgIndex index, FloatVectorStore data, Distance distance, float[] query,
+                                    Set<Integer> deleted, String stage) {
+        SearchResult result = index.search(query, K, 40);
+        checkLive(result.getIds(), deleted, stage);
+        Set<Integer> truth = new HashSet<>(byDistance(data, distance, query, deleted).subList(0, K));
+        int hits = 0;
+        for (int id : result.getIds()) {
+            if (truth.contains(id)) hits++;
+        }
+        check(hits >= K * 8 / 10, stage + " recall " + hits + "/" + K);
+    }
+
+    private static void checkLive(int[] ids, Set<Integer> deleted, String stage) {
+        check(ids.length == K, stage + " search returned " + ids.length + " results");
+        for (int id : ids) {
+            check(!deleted.contains(id), stage + " search returned deleted " + id);
+        }
+    }
+
+    private static GraphStore exactKnn(FloatVectorStore data, Distance distance, int k) {
+        GraphStore graph = new GraphStore(data.size(), k);
+        float[] row = new float[DIM];
+        for (int n = 0; n < data.size(); n++) {
+            Set<Integer> self = new HashSet<>();
+            self.add(n);
+            List<Integer> nearest = byDistance(data, distance, data.get(n, row), self);
+            for (int i = 0; i < k; i++) {
+                graph.add(n, nearest.get(i));
+            }
+        }
+        return graph;
+    }
+
+    private static List<Integer> byDistance(final FloatVectorStore data, final Distance distance,
+                                            final float[] query, Set<Integer> skip) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < data.size(); i++) {
+            if (!skip.contains(i)) ids.add(i);
+        }
+        ids.sort(new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(distance.distance(data, a, query), distance.distance(data, b, query));
+            }
+        });
+        return ids;
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] v = new float[DIM];
+        for (int j = 0; j < DIM; j++) {
+            v[j] = random.nextFloat();
+        }
+        return v;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.github.algox.test;
+
+import com.github.algox.indexsearch.CommonDistance;
+import com.github.algox.indexsearch.Distance;
+import com.github.algox.indexsearch.DotDistance;
+import com.github.algox.indexsearch.FloatVectorStore;
+import com.github.algox.indexsearch.Fp16VectorStore;
+import com.github.algox.indexsearch.Int8VectorStore;
+import com.github.algox.indexsearch.PqCodes;
+import com.github.algox.indexsearch.ProductQuantizer;
+import com.github.algox.indexsearch.VectorStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+public class TestQuantizers {
+    private static final int N = 2000;
+    private static final int DIM = 16;
+
+    public static void main(String[] args) throws IOException {
+        FloatVectorStore data = randomData(new Random(11));
+        Distance l2 = new CommonDistance();
+        halfFloats();
+        fp16Store(data, l2);
+        int8Store(data, l2);
+        productQuantizer(data, l2);
+        System.out.println("ok");
+    }
+
+    private static void halfFloats() {
+        float[] exact = {0f, -0f, 1f, -2f, 0.5f, 65504f, 6.1035156E-5f, 5.9604645E-8f,
+                Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (float f : exact) {
+            float back = Fp16VectorStore.toFloat(Fp16VectorStore.toHalf(f));
+            check(Float.floatToIntBits(back) == Float.floatToIntBits(f), f + " became " + back);
+        }
+        check(Float.isNaN(Fp16VectorStore.toFloat(Fp16VectorStore.toHalf(Float.NaN))), "NaN lost");
+        check(Fp16VectorStore.toFloat(Fp16VectorStore.toHalf(1e6f)) == Float.POSITIVE_INFINITY, "no overflow");
+        check(Fp16VectorStore.toFloat(Fp16VectorStore.toHalf(1e-9f)) == 0f, "no underflow");
+        // halfway between 1 and the next half: ties go to the even mantissa
+        check(Fp16VectorStore.toFloat(Fp16VectorStore.toHalf(1f + 0x1p-11f)) == 1f, "tie not rounded to even");
+        check(Fp16VectorStore.toFloat(Fp16VectorStore.toHalf(1f + 0x1p-11f + 0x1p-20f)) == 1f + 0x1p-10f,
+                "above the tie not rounded up");
+
+        Random random = new Random(5);
+        for (int i = 0; i < 100000; i++) {
+            float f = (float) ((random.nextDouble() - 0.5) * Math.pow(2, random.nextInt(30) - 14));
+            float back = Fp16VectorStore.toFloat(Fp16VectorStore.toHalf(f));
+            check(Math.abs(back - f) <= Math.max(Math.abs(f) * 0x1p-11f, 0x1p-25f), f + " became " + back);
+        }
+    }
+
+    private static void fp16Store(FloatVectorStore data, Distance l2) {
+        Fp16VectorStore store = Fp16VectorStore.encode(data, ForkJoinPool.commonPool());
+        check(store.size() == N && store.dim() == DIM, "fp16 store shape");
+        float[] row = new float[DIM];
+        float[] decoded = new float[DIM];
+        for (int i = 0; i < N; i++) {
+            data.get(i, row);
+            store.get(i, decoded);
+            for (int j = 0; j < DIM; j++) {
+                check(decoded[j] == Fp16VectorStore.toFloat(Fp16VectorStore.toHalf(row[j])), "fp16 row " + i);
+            }
+        }
+        checkDistances("fp16", data, store, l2, 1e-3f);
+    }
+
+    private static void int8Store(FloatVectorStore data, Distance l2) {
+        Int8VectorStore store = Int8VectorStore.encode(data, ForkJoinPool.commonPool());
+        check(store.size() == N && store.dim() == DIM, "int8 store shape");
+        float step = store.getQuantizer().getStep();
+        float[] row = new float[DIM];
+        float[] decoded = new float[DIM];
+        for (int i = 0; i < N; i++) {
+            data.get(i, row);
+            store.get(i, decoded);
+            for (int j = 0; j < DIM; j++) {
+                check(Math.abs(decoded[j] - row[j]) <= step / 2 + 1e-5f, "int8 row " + i + " off by "
+                        + Math.abs(decoded[j] - row[j]));
+            }
+        }
+        checkDistances("int8", data, store, l2, 0.05f);
+        Distance dot = new DotDistance();
+        float[] query = new float[DIM];
+        Random random = new Random(21);
+        for (int t = 0; t < 100; t++) {
+            for (int j = 0; j < DIM; j++) {
+                query[j] = random.nextFloat();
+            }
+            float bias = store.queryBias(query);
+            for (int i = 0; i < N; i += 17) {
+                check(close(store.dotDistance(i, query, bias), store.distance(dot, i, query), 1e-5f), "int8 dot " + i);
+            }
+        }
+    }
+
+    /**
+     * Distances on a compressed store, to a query and between two rows, must agree with
+     * the distances on its own decoded rows and stay close to the exact ones.
+     */
+    private static void checkDistances(String name, FloatVectorStore data,
+                                       VectorStore store, Distance l2, float tolerance) {
+        Random random = new Random(9);
+        float[] a = new float[DIM];
+        float[] b = new float[DIM];
+        float[] query = new float[DIM];
+        for (int t = 0; t < 200; t++) {
+            int x = random.nextInt(N);
+            int y = random.nextInt(N);
+            for (int j = 0; j < DIM; j++) {
+                query[j] = random.nextFloat();
+            }
+            store.get(x, a);
+            store.get(y, b);
+            float decodedQuery = l2.distance(a, 0, query, 0, DIM);
+            float decodedPair = l2.distance(a, 0, b, 0, DIM);
+            check(close(store.distance(l2, x, query), decodedQuery, 1e-4f), name + " query distance");
+            check(close(store.distance(l2, x, y), decodedPair, 1e-4f), name + " pair distance");
+            check(close(decodedQuery, data.distance(l2, x, query), tolerance), name + " too far from exact");
+        }
+    }
+
+    private static void productQuantizer(FloatVectorStore data, Distance l2) throws IOException {
+        PqCodes codes = PqCodes.build(data, 4, l2, N, 10, ForkJoinPool.commonPool());
+        ProductQuantizer quantizer = codes.getQuantizer();
+        check(codes.size() == N && quantizer.m() == 4 && quantizer.dim() == DIM, "PQ shape");
+
+        // the code of a vector is its nearest centroid: no other code is closer
+        Random random = new Random(13);
+        float[] row = new float[DIM];
+        float[] table = null;
+        double error = 0;
+        double total = 0;
+        for (int t = 0; t < 100; t++) {
+            int x = random.nextInt(N);
+            data.get(x, row);
+            table = quantizer.lookupTable(row, table);
+            float own = quantizer.distance(codes.getCodes(), x, table);
+            byte[] encoded = new byte[quantizer.m()];
+            quantizer.encode(row, encoded, 0);
+            check(Arrays.equals(encoded, Arrays.copyOfRange(codes.getCodes(), x * 4, x * 4 + 4)), "PQ codes differ");
+            for (int y = 0; y < N; y += 7) {
+                check(own <= quantizer.distance(codes.getCodes(), y, table) + 1e-5f, "vector closer to another code");
+                error += Math.abs(quantizer.distance(codes.getCodes(), y, table) - data.distance(l2, y, row));
+                total += data.distance(l2, y, row);
+            }
+        }
+        check(error / total < 0.25, "PQ relative error " + error / total);
+
+        File file = File.createTempFile("codes", ".pq");
+        file.deleteOnExit();
+        codes.save(file.getPath());
+        PqCodes loaded = PqCodes.load(file.getPath());
+        check(loaded.size() == N, "loaded PQ size " + loaded.size());
+        check(Arrays.equals(Arrays.copyOf(loaded.getCodes(), N * 4), Arrays.copyOf(codes.getCodes(), N * 4)),
+                "loaded PQ codes differ");
+        data.get(0, row);
+        check(loaded.getQuantizer().distance(loaded.getCodes(), 1, loaded.getQuantizer().lookupTable(row, null))
+                == quantizer.distance(codes.getCodes(), 1, quantizer.lookupTable(row, null)), "loaded codebooks differ");
+    }
+
+    private static FloatVectorStore randomData(Random random) {
+        FloatVectorStore data = new FloatVectorStore(N, DIM);
+        float[][] centers = new float[8][DIM];
+        for (float[] center : centers) {
+            for (int j = 0; j < DIM; j++) {
+                center[j] = random.nextFloat();
+            }
+        }
+        float[] row = new float[DIM];
+        for (int i = 0; i < N; i++) {
+            float[] center = centers[random.nextInt(centers.length)];
+            for (int j = 0; j < DIM; j++) {
+                row[j] = center[j] + (float) random.nextGaussian() * 0.05f;
+            }
+            data.set(i, row);
+        }
+        return data;
+    }
+
+    private static boolean close(float a, float b, float tolerance) {
+        return Math.abs(a - b) <= tolerance * Math.max(1f, Math.abs(b));
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}